@@ -0,0 +1,143 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aho-Corasick automaton that finds all patterns in one pass over the input,
+ * shared by `exc.java` and `p_stats.java` through `//SOURCES`.
+ * <p>
+ * Patterns and input are sequences of symbols, such as the characters of a line
+ * or the bytes of a file. Symbols that occur in no pattern share one input class,
+ * and the transitions of all states are precomputed, so each symbol of the input
+ * costs a single table lookup. The automaton is immutable, so the same instance
+ * can be used by several threads.
+ * </p>
+ */
+class AhoCorasick {
+
+    /**
+     * Input class of each symbol below 256, 0 for the symbols of no pattern.
+     */
+    private final int[] smallClasses = new int[256];
+    private final Map<Integer, Integer> classes = new HashMap<>();
+    private final int classCount;
+
+    /**
+     * Next state for each state and input class, at `state * classCount + class`.
+     */
+    private final int[] transitions;
+
+    /**
+     * Patterns found on reaching each state, longest first, or null.
+     */
+    private final int[][] outputs;
+
+    /**
+     * Compiles the patterns. An empty pattern is never found.
+     *
+     * @param patterns The symbols of each pattern.
+     */
+    AhoCorasick(List<int[]> patterns) {
+        int n = 1;
+        for (int[] pattern : patterns) {
+            for (int symbol : pattern) {
+                if (classOf(symbol) == 0) {
+                    if (symbol < smallClasses.length) {
+                        smallClasses[symbol] = n++;
+                    } else {
+                        classes.put(symbol, n++);
+                    }
+                }
+            }
+        }
+        classCount = n;
+
+        // Trie of the patterns, 0 means no child
+        List<int[]> children = new ArrayList<>();
+        List<List<Integer>> found = new ArrayList<>();
+        children.add(new int[classCount]);
+        found.add(new ArrayList<>());
+        for (int i = 0; i < patterns.size(); i++) {
+            int[] pattern = patterns.get(i);
+            if (pattern.length == 0) {
+                continue;
+            }
+            int state = 0;
+            for (int symbol : pattern) {
+                int c = classOf(symbol);
+                if (children.get(state)[c] == 0) {
+                    children.get(state)[c] = children.size();
+                    children.add(new int[classCount]);
+                    found.add(new ArrayList<>());
+                }
+                state = children.get(state)[c];
+            }
+            found.get(state).add(i);
+        }
+
+        // Breadth-first, so that the failure state is complete before its use
+        int states = children.size();
+        transitions = new int[states * classCount];
+        outputs = new int[states][];
+        int[] failure = new int[states];
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        for (int c = 0; c < classCount; c++) {
+            int child = children.get(0)[c];
+            transitions[c] = child;
+            if (child != 0) {
+                queue[tail++] = child;
+            }
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            // Patterns of the failure state are shorter
+            found.get(state).addAll(found.get(failure[state]));
+            if (!found.get(state).isEmpty()) {
+                outputs[state] = found.get(state).stream().mapToInt(Integer::intValue).toArray();
+            }
+            for (int c = 0; c < classCount; c++) {
+                int child = children.get(state)[c];
+                int fallback = transitions[failure[state] * classCount + c];
+                if (child == 0) {
+                    transitions[state * classCount + c] = fallback;
+                } else {
+                    transitions[state * classCount + c] = child;
+                    failure[child] = fallback;
+                    queue[tail++] = child;
+                }
+            }
+        }
+    }
+
+    private int classOf(int symbol) {
+        if (symbol < smallClasses.length) {
+            return smallClasses[symbol];
+        }
+        return classes.getOrDefault(symbol, 0);
+    }
+
+    /**
+     * Gets the state after the next symbol of the input, starting from state 0.
+     *
+     * @param state The current state.
+     * @param symbol The next symbol, a character or an unsigned byte.
+     * @return The next state.
+     */
+    int next(int state, int symbol) {
+        return transitions[state * classCount + classOf(symbol)];
+    }
+
+    /**
+     * Gets the patterns that end at the last symbol when reaching a state.
+     *
+     * @param state The state.
+     * @return The indexes of the patterns, longest first, or null if there are none.
+     */
+    int[] found(int state) {
+        return outputs[state];
+    }
+
+}
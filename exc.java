@@ -2,32 +2,89 @@
 //JAVA 17+
 //DEPS info.picocli:picocli:4.7.5
 //DEPS org.yaml:snakeyaml:1.33
+//SOURCES AhoCorasick.java
 
 import static java.lang.System.out;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
-import java.io.FileNotFoundException;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
-import java.io.PrintWriter;
-import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.StringTokenizer;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.CRC32;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 import org.yaml.snakeyaml.Yaml;
 
 import picocli.CommandLine;
@@ -44,9 +101,9 @@ import picocli.CommandLine.Parameters;
  */
 @Command(name = "exc", mixinStandardHelpOptions = true, version = "2024-04-05", 
          description = "Checking exceptions in a log file")
-class exc implements Callable<Integer> {
+class exc implements Callable<Integer>, Cloneable {
 
-    @Parameters(index = "0", description = "Log file")
+    @Parameters(index = "0", description = "Log file, folder or glob pattern (e.g. `logs/server.log*`)")
     String logFile;
 
     @Option(names = { "--tformat" }, description = "Timestamp format.", 
@@ -59,6 +116,9 @@ class exc implements Callable<Integer> {
     @Option(names = { "--html" }, description = "Output HTML file.")
     boolean outputHtml;
 
+    @Option(names = { "--page-size" }, description = "Rows per HTML page.")
+    int pageSize = 5000;
+
     @Option(names = { "-r", "--reverse" }, description = "Reverse order.")
     boolean reverseOrder;
 
@@ -70,11 +130,85 @@ class exc implements Callable<Integer> {
 
     @Option(names = { "--restart" }, description = "Restart signature.")
     String restartSignature;
-    
+
+    @Option(names = { "--events" }, description = "YAML file with event names and their signatures.")
+    Path eventsFile;
+
+    @Option(names = { "--parallel" }, description = "Scan the log in parallel chunks.")
+    boolean parallel;
+
+    @Option(names = { "--threads" }, description = "Number of threads for parallel scan.")
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    @Option(names = { "--since-checkpoint" }, description = "Process only lines appended since the last run.")
+    boolean sinceCheckpoint;
+
+    @Option(names = { "-f", "--follow" }, description = "Keep processing lines as they are appended.")
+    boolean follow;
+
+    @Option(names = { "--interval" }, description = "Polling interval for --follow, in milliseconds.")
+    long followInterval = 1000;
+
+    @Option(names = { "--serve" }, description = "Follow the log and serve a live dashboard on this port.")
+    int servePort;
+
+    @Option(names = { "-a", "--aggregate" }, description = "Output one record per exception signature.")
+    boolean aggregate;
+
+    @Option(names = { "--frames" }, description = "Fingerprint exceptions by this number of top stack frames.")
+    int frames = 0;
+
+    @Option(names = { "-m", "--merge" }, description = "Merge several log files into one chronological list.")
+    boolean merge;
+
+    @Option(names = { "--from" }, description = "Start time, like `2024-04-05 14:00[:ss[,SSS]]`.")
+    String fromTime;
+
+    @Option(names = { "--to" }, description = "End time, like `2024-04-05 14:15[:ss[,SSS]]`.")
+    String toTime;
+
+    @Option(names = { "--last" }, description = "Report only the last N entries, reading the log backwards from its end.")
+    int lastCount;
+
+    @Option(names = { "-j", "--jobs" }, description = "Number of log files processed at the same time.")
+    int jobs = 1;
+
+    @Option(names = { "--memory" }, description = "Output heap time series and URI counts of `[memoryInfo]` lines as CSV.")
+    boolean memoryInfo;
+
+    static final DateTimeFormatter RANGE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd[ ]['T']HH:mm[:ss][,SSS][.SSS]");
+
+    /**
+     * Suffixes of files created by exc, skipped when searching for log files.
+     */
+    static final List<String> OUTPUT_SUFFIXES = List.of(".yml", ".html", ".checkpoint", ".idx",
+                                                           ".memory.csv", ".uris.csv");
+
     List<Exc> exceptions;
 
     ExcProcessor proc;
 
+    ExcAggregator aggregator;
+
+    MemorySeries memory;
+
+    /**
+     * Set for the copies that process one file each with `--jobs`,
+     * so that only progress and the summary are printed to the console,
+     * and not the settings or the files created for each log.
+     */
+    boolean quiet;
+
+    /**
+     * Counts the bytes scanned by the copies with `--jobs`, for their progress and throughput.
+     */
+    LongAdder bytesRead;
+
+    /**
+     * Milliseconds between two progress lines with `--jobs`.
+     */
+    static final long PROGRESS_INTERVAL = 2000;
+
     /**
      * Main execution method for processing the log file.
      * 
@@ -83,528 +217,4110 @@ class exc implements Callable<Integer> {
      */
     @Override
     public Integer call() throws Exception {
-        Path logPath = Path.of(logFile);
-        if (!Files.exists(logPath)) {
+        List<Path> logPaths = findLogFiles(logFile);
+        if (logPaths.isEmpty()) {
             out.println("[ERROR] File not found: " + logFile);
             return 1;
         }
 
         Charset charset = Charset.forName(encoding);
-        String logText = Files.readString(logPath, charset);
-        
-        extractExceptions(logText);
+        if (follow || sinceCheckpoint || servePort > 0) {
+            if (logPaths.size() > 1 || LineSource.isGzip(logPaths.get(0))) {
+                out.println("[ERROR] Single uncompressed log file expected with --follow, --serve or --since-checkpoint: " + logFile);
+                return 1;
+            }
+            if (!MappedLineReader.isAsciiCompatible(charset)) {
+                out.println("[ERROR] Encoding not supported with --follow, --serve or --since-checkpoint: " + encoding);
+                return 1;
+            }
+        }
+        if (follow || servePort > 0) {
+            followLog(logPaths.get(0), charset);
+            return 0;
+        }
+        if (merge) {
+            extractMerged(logPaths, charset);
+            Path folder = logPaths.get(0).toAbsolutePath().getParent();
+            outputExceptions(folder.resolve("exc-merged").toString());
+            return 0;
+        }
+        if (jobs > 1 && logPaths.size() > 1) {
+            extractConcurrently(logPaths, charset);
+            return 0;
+        }
+        for (Path logPath : logPaths) {
+            if (logPaths.size() > 1) {
+                out.println("Log file: " + logPath);
+            }
+            extractFile(logPath, charset);
+        }
+        return 0;
+    }
 
-        if (outputHtml) {
-            outputYaml = true;            
+    /**
+     * Extracts the exceptions of one log file according to the options and outputs them.
+     * 
+     * @param logPath The path to the log file.
+     * @param charset The encoding of the log file.
+     * @throws Exception If the log cannot be read or an output file cannot be created.
+     */
+    void extractFile(Path logPath, Charset charset) throws Exception {
+        if (sinceCheckpoint) {
+            extractSinceCheckpoint(logPath, charset);
+        } else if (fromTime != null || toTime != null) {
+            extractTimeRange(logPath, charset);
+        } else if (lastCount > 0) {
+            extractLast(logPath, charset);
+        } else {
+            extractExceptions(logPath, charset);
         }
-        
+        outputExceptions(logPath.toString());
+    }
+
+    /**
+     * Processes up to `--jobs` log files at the same time, each one with its own copy
+     * of this command, so that their processors do not share any state.
+     * <p>
+     * The entries of each log are written to `<log>.yml`, or `<log>.html` with `--html`.
+     * Progress and throughput are printed as the files complete, and every
+     * {@link #PROGRESS_INTERVAL} ms in between from the bytes scanned so far, after
+     * decompression. A summary with the entries of each signature in all logs is
+     * written to `exc-summary.yml`.
+     * </p>
+     * 
+     * @param logPaths The log files.
+     * @param charset The encoding of the log files.
+     * @throws Exception If a log cannot be read or an output file cannot be created.
+     */
+    void extractConcurrently(List<Path> logPaths, Charset charset) throws Exception {
+        if (!outputHtml) {
+            outputYaml = true;
+        }
+        printSettings();
+        int n = logPaths.size();
+        out.println("Jobs: " + jobs);
+        long started = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(jobs, n));
+        CompletionService<LogSummary> done = new ExecutorCompletionService<>(pool);
+        List<LongAdder> counters = new ArrayList<>();
+        for (Path logPath : logPaths) {
+            LongAdder counter = new LongAdder();
+            counters.add(counter);
+            done.submit(() -> {
+                exc job = copy();
+                job.bytesRead = counter;
+                long start = System.nanoTime();
+                job.extractFile(logPath, charset);
+                return job.summarize(logPath, (System.nanoTime() - start) / 1e9);
+            });
+        }
+
+        List<LogSummary> summaries = new ArrayList<>();
+        long bytes = 0;
+        long lines = 0;
+        try {
+            while (summaries.size() < n) {
+                Future<LogSummary> next = done.poll(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+                double seconds = (System.nanoTime() - started) / 1e9;
+                if (next == null) {
+                    long read = counters.stream().mapToLong(LongAdder::sum).sum();
+                    out.printf("[%d/%d] %.1f MB read, %.1f MB/s%n",
+                               summaries.size(), n, read / 1e6, read / 1e6 / seconds);
+                    continue;
+                }
+                LogSummary summary = next.get();
+                summaries.add(summary);
+                bytes += summary.bytes();
+                lines += summary.lines();
+                out.printf("[%d/%d] %s: %d entries, %d lines in %.1f s, total %.1f MB/s, %.0f lines/s%n",
+                           summaries.size(), n, summary.file().getFileName(), summary.entries(), summary.lines(),
+                           summary.seconds(), bytes / 1e6 / seconds, lines / seconds);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        summaries.sort(Comparator.comparing(LogSummary::file));
+        Path folder = logPaths.get(0).toAbsolutePath().getParent();
+        Path outFile = folder.resolve("exc-summary.yml");
+        try (PrintStream f = new PrintStream(new FileOutputStream(outFile.toFile()), false, StandardCharsets.UTF_8)) {
+            printSummary(f, summaries, (System.nanoTime() - started) / 1e9);
+        }
+        out.println("File created: " + outFile);
+    }
+
+    /**
+     * Result of processing one log file with `--jobs`.
+     */
+    record LogSummary(Path file, long bytes, long lines, double seconds, Map<String, Long> signatures) {
+
+        long entries() {
+            return signatures.values().stream().mapToLong(Long::longValue).sum();
+        }
+
+    }
+
+    /**
+     * @return  a copy of this command with the options, but without the results
+     */
+    exc copy() {
+        try {
+            exc job = (exc) clone();
+            job.quiet = true;
+            job.proc = null;
+            job.exceptions = null;
+            job.aggregator = null;
+            job.memory = null;
+            return job;
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Counts the extracted entries of each signature, without START OF LOG and END OF LOG.
+     * 
+     * @param logPath The processed log file.
+     * @param seconds The processing time.
+     * @return The summary of the log file.
+     */
+    LogSummary summarize(Path logPath, double seconds) {
+        Map<String, Long> signatures = new TreeMap<>();
+        if (aggregator != null) {
+            for (ExcStats st : aggregator.stats.values()) {
+                signatures.merge(st.sig, st.count, Long::sum);
+            }
+        } else {
+            for (Exc exc : exceptions) {
+                signatures.merge(exc.sig, 1L, Long::sum);
+            }
+        }
+        signatures.remove("START OF LOG");
+        signatures.remove("END OF LOG");
+        return new LogSummary(logPath, bytesRead.sum(), proc.linesRead, seconds, signatures);
+    }
+
+    /**
+     * Outputs the totals, the entries of each signature in all logs, most frequent first,
+     * and the results of each log in YAML format.
+     * 
+     * @param out The PrintStream to output the summary.
+     * @param summaries The results of each log.
+     * @param seconds The total processing time.
+     */
+    static void printSummary(PrintStream out, List<LogSummary> summaries, double seconds) {
+        long bytes = summaries.stream().mapToLong(LogSummary::bytes).sum();
+        long lines = summaries.stream().mapToLong(LogSummary::lines).sum();
+        Map<String, Long> signatures = new HashMap<>();
+        for (LogSummary summary : summaries) {
+            summary.signatures().forEach((sig, count) -> signatures.merge(sig, count, Long::sum));
+        }
+        out.println("files: " + summaries.size());
+        out.println("bytes: " + bytes);
+        out.println("lines: " + lines);
+        out.printf("seconds: %.3f%n", seconds);
+        out.printf("mb_per_s: %.1f%n", bytes / 1e6 / seconds);
+        out.printf("lines_per_s: %.0f%n", lines / seconds);
+        out.println("signatures:");
+        signatures.entrySet().stream()
+                  .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                  .forEach(e -> out.println("  " + quoteYaml(e.getKey()) + ": " + e.getValue()));
+        out.println("logs:");
+        for (LogSummary summary : summaries) {
+            out.println("-");
+            out.println("  file: " + quoteYaml(summary.file().toString()));
+            out.println("  bytes: " + summary.bytes());
+            out.println("  lines: " + summary.lines());
+            out.println("  entries: " + summary.entries());
+            out.printf("  seconds: %.3f%n", summary.seconds());
+        }
+    }
+
+    static String quoteYaml(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    /**
+     * Outputs the extracted exceptions to the console, or to YAML and HTML files.
+     * 
+     * @param outputBase The output file name without the `.yml` or `.html` extension.
+     * @throws Exception If an output file cannot be created.
+     */
+    void outputExceptions(String outputBase) throws Exception {
         if (outputYaml) {
             // Create YAML file
-            String outName = logFile + ".yml";
+            String outName = outputBase + ".yml";
             try (
                 PrintStream f = new PrintStream(new FileOutputStream(outName))
             ) {              
                 printExceptions(f);
-                out.println("File created: " + outName);
+                if (!quiet) {
+                    out.println("File created: " + outName);
+                }
             }
             
         } 
         
         if (outputHtml) {
-            // Create HTML from YAML file
-            new HtmlTable(logFile).createOutputHtml();            
-        } else {
+            // Create HTML directly from the records
+            if (aggregator != null) {
+                new HtmlTable(outputBase, statsColumns()).createOutputHtml(aggregator.sorted());
+            } else {
+                new HtmlTable(outputBase, excColumns()).createOutputHtml(exceptions);
+            }
+        } else if (!quiet) {
             // Send YAML to console
             printExceptions(out);
         }
-        
-        return 0;
+
+        if (memory != null) {
+            memory.writeCsv(outputBase);
+        }
     }
-    
+
     /**
-     * Extracts exceptions from the given log text.
-     * 
-     * @param logText The text content of the log file.
-     * @throws IOException If an I/O error occurs during processing.
+     * @return  columns of the exception entries, as in their YAML output
      */
-    void extractExceptions(String logText) throws IOException {
-        proc = new ExcProcessor();
-        if (restartSignature !=null) {
-            out.println("Restart signature: `" + restartSignature + "`");
-            proc.setRestartSignature(restartSignature);
+    List<String> excColumns() {
+        List<String> columns = new ArrayList<>();
+        if (merge) {
+            columns.add("src");
         }
-        
-        TimestampExtractor tse = new SimpleTimestampExtractor();
-        if (timeStampFormat != null) {
-            out.println("Timestamp format: `" + timeStampFormat + "`");
-            out.println("Skip prefix length: " + skipPrefix);
-            tse.setDateFormat(timeStampFormat, skipPrefix);
+        columns.addAll(List.of("lno", "time", "sig", "cmt"));
+        if (frames > 0) {
+            columns.add("fp");
         }
-        exceptions = proc.process(logText, tse);
-
-        Collections.sort(exceptions, new Comparator<Exc>() {
-            public int compare(Exc e1, Exc e2) {
-                //Date t1 = tse.parse(e1.time);
-                //Date t2 = tse.parse(e2.time);
-                //return -t1.compareTo(t2);
-                return reverseOrder ? 
-                       Integer.compare(e2.lno, e1.lno) :
-                       Integer.compare(e1.lno, e2.lno);
-            }
-        });
+        return columns;
     }
-    
+
     /**
-     * Outputs the extracted exceptions to the specified {@link java.io.PrintStream} in YAML format.
-     * 
-     * @param out The PrintStream to output exceptions.
-     *
-     * @see https://docs.oracle.com/javase/8/docs/api/java/io/PrintStream.html
+     * @return  columns of the aggregated records, as in their YAML output
      */
-    void printExceptions(PrintStream out) {
-        for (Exc exc : exceptions) {
-            out.println("-");
-            out.println(exc.toYaml("  "));
+    List<String> statsColumns() {
+        List<String> columns = new ArrayList<>(List.of("sig"));
+        if (frames > 0) {
+            columns.addAll(List.of("fp", "frame"));
         }
+        columns.addAll(List.of("count", "first_lno", "first_time", "last_lno", "last_time", "comments", "minutes"));
+        return columns;
     }
-    
+
     /**
-     * The main method to execute the command-line application.
+     * Finds the log files to process.
      * 
-     * @param args Command-line arguments.
+     * @param logFile A log file, a folder with log files, or a glob pattern for the file name.
+     * @return The log files sorted by name, without files created by exc.
+     * @throws IOException If a folder cannot be listed.
      */
-    public static void main(String... args) {
-        int exitCode = new CommandLine(new exc()).execute(args);
-        System.exit(exitCode);
+    static List<Path> findLogFiles(String logFile) throws IOException {
+        Path folder;
+        PathMatcher matcher;
+        int k = indexOfAny(logFile, "*?[{");
+        if (k >= 0) {
+            int sep = Math.max(logFile.lastIndexOf('/', k), logFile.lastIndexOf('\\', k));
+            folder = Path.of(sep < 0 ? "." : sep == 0 ? "/" : logFile.substring(0, sep));
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + logFile.substring(sep + 1));
+        } else {
+            Path path = Path.of(logFile);
+            if (!Files.isDirectory(path)) {
+                return Files.exists(path) ? List.of(path) : List.of();
+            }
+            folder = path;
+            matcher = p -> !p.toString().startsWith(".");
+        }
+        if (!Files.isDirectory(folder)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(folder)) {
+            return files.filter(Files::isRegularFile)
+                        .filter(p -> matcher.matches(p.getFileName()))
+                        .filter(p -> OUTPUT_SUFFIXES.stream().noneMatch(p.toString()::endsWith))
+                        .sorted()
+                        .collect(Collectors.toList());
+        }
+    }
+
+    static int indexOfAny(String s, String chars) {
+        for (int i = 0; i < s.length(); i++) {
+            if (chars.indexOf(s.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
     }
 
-    // ------ Inner Classes 
-    
     /**
-     * Represents an exception entry extracted from the log file.
+     * Extracts exceptions from several log files, such as rotated and gzipped logs,
+     * and merges them into one chronological list.
+     * <p>
+     * Each file is read and decompressed by a thread of a pool with `--jobs` threads,
+     * or one per processor, with its own processor, so line numbers and START/END/RESTART
+     * entries are reported per file. The entries of all files are merged by timestamp
+     * with a priority queue that holds the next entry of each file (k-way merge).
+     * The queue between a file and the merge is not bounded, so the merge can wait
+     * for a file that no thread reads yet while the other ones are read to their end.
+     * `--from` and `--to` filter the merged entries by their timestamps,
+     * and `--last` keeps the last entries of the merged list.
+     * </p>
+     * 
+     * @param logPaths The log files.
+     * @param charset The encoding of the log files.
+     * @throws IOException If an I/O error occurs during processing.
      */
-    class Exc {
-
-        public int lno;
-        public String time;
-        public String sig;
-        public String cmt;
-        
-        /**
-         * Converts this exception entry to a YAML-formatted string.
-         * 
-         * @param indent The indentation to use for formatting.
-         * @return A YAML representation of the exception entry.
-         */
-        public String toYaml(String indent) {
-            StringBuilder sb = new StringBuilder();
-            sb.append(indent + "lno: " + lno + "\n");
-            sb.append(indent + "time: " + time + "\n");
-            sb.append(indent + "sig: " + sig + "\n");
-            sb.append(indent + "cmt: " + (cmt == null ? "" : cmt) + "\n");
-            return sb.toString();
+    void extractMerged(List<Path> logPaths, Charset charset) throws IOException {
+        createProcessor();
+        boolean bounded = fromTime != null || toTime != null;
+        long from = fromTime == null ? Long.MIN_VALUE : parseRangeTime(fromTime);
+        long to = toTime == null ? Long.MAX_VALUE : parseRangeTime(toTime);
+        int n = logPaths.size();
+        List<BlockingQueue<Exc>> queues = new ArrayList<>();
+        List<MemorySeries> fileMemories = new ArrayList<>();
+        Exc endOfFile = new Exc();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        int readers = jobs > 1 ? jobs : Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(n, readers));
+        for (Path logPath : logPaths) {
+            BlockingQueue<Exc> queue = new LinkedBlockingQueue<>();
+            queues.add(queue);
+            ExcProcessor fileProc = new ExcProcessor();
+            fileProc.events = proc.events;
+            fileProc.frames = frames;
+            fileProc.source = logPath.getFileName().toString();
+            if (memory != null) {
+                fileProc.memory = new MemorySeries();
+                fileProc.memory.from = from;
+                fileProc.memory.to = to;
+                fileMemories.add(fileProc.memory);
+            }
+            fileProc.sink = queue::add;
+            pool.execute(() -> {
+                try (LineSource in = LineSource.open(logPath, charset)) {
+                    fileProc.process(in, createTimestampExtractor());
+                } catch (Exception e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    queue.add(endOfFile);
+                }
+            });
         }
 
+        TimestampExtractor tse = createTimestampExtractor();
+        PriorityQueue<MergeHead> heads = new PriorityQueue<>(
+                Comparator.comparingLong(MergeHead::time).thenComparingInt(MergeHead::source));
+        LinkedList<Exc> merged = new LinkedList<>();
+        exceptions = merged;
+        try {
+            for (int i = 0; i < n; i++) {
+                Exc exc = queues.get(i).take();
+                if (exc != endOfFile) {
+                    heads.add(new MergeHead(exc, mergeTime(tse, exc), i));
+                }
+            }
+            while (!heads.isEmpty()) {
+                MergeHead head = heads.poll();
+                if (bounded && (head.exc().time == null || head.time() < from || head.time() > to)) {
+                    // Outside of the time range
+                } else if (lastCount > 0) {
+                    // Enough for the last entries and the final END OF LOG
+                    merged.add(head.exc());
+                    if (merged.size() > lastCount + 1) {
+                        merged.removeFirst();
+                    }
+                } else if (aggregator != null) {
+                    aggregator.accept(head.exc());
+                } else {
+                    exceptions.add(head.exc());
+                }
+                Exc exc = queues.get(head.source()).take();
+                if (exc != endOfFile) {
+                    heads.add(new MergeHead(exc, mergeTime(tse, exc), head.source()));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Merge interrupted");
+        } finally {
+            pool.shutdownNow();
+        }
+        if (failure.get() instanceof IOException) {
+            throw (IOException) failure.get();
+        } else if (failure.get() != null) {
+            throw new IllegalStateException(failure.get());
+        }
+        for (MemorySeries fileMemory : fileMemories) {
+            memory.append(fileMemory, null);
+        }
+        if (memory != null) {
+            memory.sortByTime();
+        }
+        if (lastCount > 0) {
+            proc.exceptions = merged;
+            exceptions = proc.keepLast(lastCount);
+        }
+        if (reverseOrder) {
+            Collections.reverse(exceptions);
+        }
     }
-    
+
     /**
-     * Processes log text to extract exceptions using a specified timestamp extractor.
+     * Next entry of a log file in the merge.
      */
-    class ExcProcessor {
-
-        int lno;
+    record MergeHead(Exc exc, long time, int source) {}
 
-        String restartSignature = "  :: Spring Boot ::  ";
-        
-        /**
-         * Processes the provided log text and extracts exceptions.
-         * 
-         * @param logText The log text to process.
-         * @param tse The TimestampExtractor to use for extracting timestamps.
-         * @return A list of extracted exceptions.
-         * @throws IOException If an I/O error occurs during processing.
-         */        
-        public List<Exc> process(String logText, TimestampExtractor tse)
-                throws IOException {
-            LinkedList<Exc> exceptions = new LinkedList<>();
-            lno = 0;
-            BufferedReader in = new BufferedReader(new StringReader(logText));
-            String lastTime = null;
-            String lastComment = null;
-            while (in.ready()) {
-                String line = in.readLine();
-                lno++;
-                if (line == null)
-                    break;
+    static long mergeTime(TimestampExtractor tse, Exc exc) {
+        return exc.time == null ? Long.MIN_VALUE : tse.parse(exc.time).getTime();
+    }
 
-                String tstamp = tse.extractTimestamp(line);
-                if (tstamp != null) {
-                    if (lastTime == null) {
-                        exceptions.add(createExc("START OF LOG", tstamp, null));
-                    }
-                    lastTime = tstamp;
+    /**
+     * Extracts exceptions from the log file, reading it line by line
+     * so that the whole file never has to fit into memory.
+     * 
+     * @param logPath The path to the log file.
+     * @param charset The encoding of the log file.
+     * @throws IOException If an I/O error occurs during processing.
+     */
+    void extractExceptions(Path logPath, Charset charset) throws IOException {
+        createProcessor();
+        if (parallel && !LineSource.isGzip(logPath) && MappedLineReader.isAsciiCompatible(charset)) {
+            if (!quiet) {
+                out.println("Threads: " + threads);
+            }
+            exceptions = proc.processParallel(logPath, charset, this::createTimestampExtractor, threads);
+        } else {
+            try (LineSource in = LineSource.open(logPath, charset)) {
+                exceptions = proc.process(in, createTimestampExtractor());
+            }
+        }
+        sortExceptions();
+    }
 
-                    if (line.contains(restartSignature)) {
-                        exceptions.add(createExc("SERVER RESTART", tstamp, null));
-                    }
+    /**
+     * Reads all lines of a log without processing them, so that the reader can be measured alone.
+     * 
+     * @param logPath The path to the log file.
+     * @param charset The encoding of the log file; must be ASCII-compatible.
+     * @param decode Whether the lines are decoded to strings, or only split on their raw bytes.
+     * @return The number of lines.
+     * @throws IOException If an I/O error occurs.
+     */
+    static long readLines(Path logPath, Charset charset, boolean decode) throws IOException {
+        long n = 0;
+        try (MappedLineReader in = new MappedLineReader(logPath, charset)) {
+            if (decode) {
+                while (in.readLine() != null) {
+                    n++;
                 }
-
-                String comment = tse.extractComment(line);
-                if (comment != null) {
-                    lastComment = comment;
+            } else {
+                ByteLine line = new ByteLine();
+                while (in.readLine(line)) {
+                    n++;
                 }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Extracts exceptions with timestamps between `--from` and `--to`.
+     * <p>
+     * For an uncompressed log, a time index is kept in `<log>.idx`, so that only the region
+     * of the log around the time range is scanned. The index is built by the first query
+     * and extended when the log grows.
+     * </p>
+     * 
+     * @param logPath The path to the log file.
+     * @param charset The encoding of the log file.
+     * @throws IOException If an I/O error occurs during processing.
+     */
+    void extractTimeRange(Path logPath, Charset charset) throws IOException {
+        createProcessor();
+        TimestampExtractor tse = createTimestampExtractor();
+        long from = fromTime == null ? Long.MIN_VALUE : parseRangeTime(fromTime);
+        long to = toTime == null ? Long.MAX_VALUE : parseRangeTime(toTime);
+        if (memory != null) {
+            memory.from = from;
+            memory.to = to;
+        }
 
-                // process exceptions
-                String sig = extractException(line);
-                if (sig != null) {
-                    exceptions.add(createExc(sig, lastTime, lastComment));
+        exceptions = new LinkedList<>();
+        Consumer<Exc> target = aggregator != null ? aggregator : exceptions::add;
+        proc.sink = exc -> {
+            if (exc.time != null) {
+                long t = tse.parse(exc.time).getTime();
+                if (t >= from && t <= to) {
+                    target.accept(exc);
                 }
             }
-            if (lastTime != null) {
-                exceptions.add(createExc("END OF LOG", lastTime, null));
+        };
+
+        if (LineSource.isGzip(logPath) || !MappedLineReader.isAsciiCompatible(charset)) {
+            try (LineSource in = LineSource.open(logPath, charset)) {
+                proc.process(in, tse);
+            }
+        } else {
+            String format = timeStampFormat + "|" + skipPrefix;
+            TimeIndex index = TimeIndex.update(logPath, charset, tse, format);
+            try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.READ)) {
+                Checkpoint start = index.findStart(from);
+                long end = index.findEnd(to);
+                out.println("Scanning: bytes " + start.offset + ".." + end + " of " + channel.size());
+                proc.begin(tse);
+                proc.restore(start);
+                try (LineSource in = new MappedLineReader(channel, false, start.offset, end,
+                                                          charset, MappedLineReader.WINDOW_SIZE)) {
+                    proc.scan(in);
+                }
+                if (end == channel.size()) {
+                    proc.endOfLog();
+                }
             }
-            in.close();
-            return exceptions;
         }
-        
-        /**
-         * Sets the signature that indicates a restart event in the log.
-         * 
-         * @param restartSignature The signature string to identify restart events.
-         */        
-        void setRestartSignature(String restartSignature) {
-            this.restartSignature = restartSignature;
+        sortExceptions();
+    }
+
+    /**
+     * Extracts the last `--last` entries of the log.
+     * <p>
+     * An uncompressed log is read backwards in blocks from its end, until the blocks hold
+     * enough entries and the timestamps they need, so the time does not depend on the log size.
+     * The line number of the first block is taken from the time index if there is one,
+     * otherwise the lines before it are counted on their raw bytes, without decoding
+     * or matching them. In a log that has
+     * `[memoryInfo]` lines only far from its end, the comments can be left empty.
+     * A compressed log is read completely.
+     * </p>
+     * 
+     * @param logPath The path to the log file.
+     * @param charset The encoding of the log file.
+     * @throws IOException If an I/O error occurs during processing.
+     */
+    void extractLast(Path logPath, Charset charset) throws IOException {
+        createProcessor();
+        if (LineSource.isGzip(logPath) || !MappedLineReader.isAsciiCompatible(charset)) {
+            Consumer<Exc> target = proc.sink;
+            proc.sink = null;
+            try (LineSource in = LineSource.open(logPath, charset)) {
+                proc.process(in, createTimestampExtractor());
+            }
+            proc.sink = target;
+            exceptions = proc.keepLast(lastCount);
+        } else {
+            TimeIndex index = null;
+            if (Files.exists(TimeIndex.sidecar(logPath))) {
+                String format = timeStampFormat + "|" + skipPrefix;
+                index = TimeIndex.update(logPath, charset, createTimestampExtractor(), format);
+            }
+            exceptions = proc.processLast(logPath, charset, this::createTimestampExtractor, lastCount, index);
+        }
+        sortExceptions();
+    }
+
+    /**
+     * @return  epoch millis of a `--from` or `--to` option
+     */
+    static long parseRangeTime(String time) {
+        return LocalDateTime.parse(time, RANGE_FORMAT).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Extracts exceptions from the lines appended to the log file since the checkpoint
+     * saved by the previous run, then saves a new checkpoint.
+     * 
+     * @param logPath The path to the log file.
+     * @param charset The encoding of the log file; must be ASCII-compatible.
+     * @throws IOException If an I/O error occurs during processing.
+     */
+    void extractSinceCheckpoint(Path logPath, Charset charset) throws IOException {
+        createProcessor();
+        proc.begin(createTimestampExtractor());
+        Path sidecar = Checkpoint.sidecar(logPath);
+        Checkpoint cp = Checkpoint.load(sidecar);
+        if (cp != null) {
+            out.println("Checkpoint: line " + cp.lno + ", offset " + cp.offset);
+        }
+        cp = processAppended(logPath, charset, cp);
+        cp.save(sidecar);
+        exceptions = proc.exceptions;
+        sortExceptions();
+    }
+
+    /**
+     * Keeps processing the lines appended to the log file and prints new exceptions
+     * to the console as they are found. Runs until interrupted.
+     * With `--since-checkpoint`, starts from the saved checkpoint and updates it after each poll.
+     * With `--serve`, new exceptions and the aggregated records are pushed to the
+     * {@link Dashboard} instead.
+     * 
+     * @param logPath The path to the log file.
+     * @param charset The encoding of the log file; must be ASCII-compatible.
+     * @throws IOException If an I/O error occurs during processing.
+     * @throws InterruptedException If interrupted while waiting for new lines.
+     */
+    void followLog(Path logPath, Charset charset) throws IOException, InterruptedException {
+        createProcessor();
+        proc.begin(createTimestampExtractor());
+        Path sidecar = Checkpoint.sidecar(logPath);
+        Checkpoint cp = sinceCheckpoint ? Checkpoint.load(sidecar) : null;
+        Dashboard dashboard = null;
+        if (servePort > 0) {
+            if (aggregator == null) {
+                aggregator = new ExcAggregator(createTimestampExtractor());
+            }
+            dashboard = new Dashboard(servePort);
+            ExcAggregator stats = aggregator;
+            Dashboard live = dashboard;
+            proc.sink = exc -> {
+                stats.accept(exc);
+                live.publish(exc);
+            };
+            out.println("Dashboard: http://localhost:" + servePort + "/");
+        }
+        out.println("Following: " + logFile);
+        try {
+            while (true) {
+                if (Files.exists(logPath)) {
+                    long total = aggregator == null ? 0 : aggregator.total;
+                    cp = processAppended(logPath, charset, cp);
+                    if (dashboard != null) {
+                        if (aggregator.total > total) {
+                            dashboard.publishStats(aggregator.sorted());
+                        }
+                    } else if (aggregator != null && aggregator.total > total) {
+                        aggregator.print(out);
+                        out.flush();
+                    }
+                    if (!proc.exceptions.isEmpty()) {
+                        exceptions = proc.exceptions;
+                        printExceptions(out);
+                        out.flush();
+                        proc.exceptions.clear();
+                    }
+                    if (sinceCheckpoint) {
+                        cp.save(sidecar);
+                    }
+                }
+                Thread.sleep(followInterval);
+            }
+        } finally {
+            if (dashboard != null) {
+                dashboard.close();
+            }
+        }
+    }
+
+    /**
+     * Processes the complete lines after the checkpoint. A rotated or truncated log
+     * is processed from the beginning.
+     * 
+     * @param logPath The path to the log file.
+     * @param charset The encoding of the log file; must be ASCII-compatible.
+     * @param cp The checkpoint to continue from, or null to start from the beginning.
+     * @return The checkpoint after the processed lines.
+     * @throws IOException If an I/O error occurs during processing.
+     */
+    Checkpoint processAppended(Path logPath, Charset charset, Checkpoint cp) throws IOException {
+        try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.READ)) {
+            if (cp == null) {
+                cp = new Checkpoint();
+            } else if (!cp.matches(logPath, channel)) {
+                out.println("[INFO] Log rotated or truncated, starting from the beginning: " + logFile);
+                cp = new Checkpoint();
+            }
+            proc.restore(cp);
+            long end = Checkpoint.completeLinesEnd(channel, cp.offset);
+            if (end > cp.offset) {
+                try (LineSource in = new MappedLineReader(channel, false, cp.offset, end,
+                                                          charset, MappedLineReader.WINDOW_SIZE)) {
+                    proc.scan(in);
+                }
+                proc.save(cp);
+                cp.offset = end;
+                cp.updateFile(logPath, channel);
+            }
+            return cp;
+        }
+    }
+
+    /**
+     * Creates the exception processor according to the command-line options.
+     */
+    void createProcessor() throws IOException {
+        proc = new ExcProcessor();
+        proc.frames = frames;
+        proc.bytesRead = bytesRead;
+        if (memoryInfo) {
+            memory = new MemorySeries();
+            proc.memory = memory;
+        }
+        if (aggregate) {
+            aggregator = new ExcAggregator(createTimestampExtractor());
+            proc.sink = aggregator;
+        }
+        if (!quiet) {
+            printSettings();
+        }
+        if (restartSignature != null || eventsFile != null) {
+            proc.setEvents(createEventMatcher());
+        }
+    }
+
+    /**
+     * Prints the options that change how lines are read.
+     */
+    void printSettings() {
+        if (restartSignature !=null) {
+            out.println("Restart signature: `" + restartSignature + "`");
         }
+        if (eventsFile != null) {
+            out.println("Events: `" + eventsFile + "`");
+        }
+        if (timeStampFormat != null) {
+            out.println("Timestamp format: `" + timeStampFormat + "`");
+            out.println("Skip prefix length: " + skipPrefix);
+        }
+    }
+
+    /**
+     * Creates the event matcher from the default restart signature, the `--events` file
+     * and the `--restart` option, in this order of precedence.
+     * 
+     * @return The event matcher.
+     * @throws IOException If the events file cannot be read.
+     */
+    EventMatcher createEventMatcher() throws IOException {
+        Map<String, List<String>> events = new LinkedHashMap<>(EventMatcher.DEFAULT_EVENTS);
+        if (eventsFile != null) {
+            events.putAll(EventMatcher.load(eventsFile));
+        }
+        if (restartSignature != null) {
+            events.put(EventMatcher.RESTART, List.of(restartSignature));
+        }
+        return new EventMatcher(events);
+    }
+
+    /**
+     * Creates a timestamp extractor according to the command-line options.
+     * The parallel scan calls it once for each chunk.
+     * 
+     * @return A new TimestampExtractor.
+     */
+    TimestampExtractor createTimestampExtractor() {
+        return createTimestampExtractor(FixedLayoutTimestampExtractor.supports(timeStampFormat));
+    }
+
+    /**
+     * Creates a timestamp extractor for `--tformat` and `--skip`.
+     * 
+     * @param fixedLayout Whether the format is parsed at fixed positions; it must be supported.
+     * @return A new TimestampExtractor.
+     */
+    TimestampExtractor createTimestampExtractor(boolean fixedLayout) {
+        TimestampExtractor tse = fixedLayout ?
+                                 new FixedLayoutTimestampExtractor() :
+                                 new SimpleTimestampExtractor();
+        if (timeStampFormat != null) {
+            tse.setDateFormat(timeStampFormat, skipPrefix);
+        }
+        return tse;
+    }
+
+    /**
+     * Sorts the extracted exceptions by line number.
+     */
+    void sortExceptions() {
+        Collections.sort(exceptions, new Comparator<Exc>() {
+            public int compare(Exc e1, Exc e2) {
+                //Date t1 = tse.parse(e1.time);
+                //Date t2 = tse.parse(e2.time);
+                //return -t1.compareTo(t2);
+                return reverseOrder ? 
+                       Integer.compare(e2.lno, e1.lno) :
+                       Integer.compare(e1.lno, e2.lno);
+            }
+        });
+    }
+    
+    /**
+     * Outputs the extracted exceptions to the specified {@link java.io.PrintStream} in YAML format.
+     * 
+     * @param out The PrintStream to output exceptions.
+     *
+     * @see https://docs.oracle.com/javase/8/docs/api/java/io/PrintStream.html
+     */
+    void printExceptions(PrintStream out) {
+        if (aggregator != null) {
+            aggregator.print(out);
+            return;
+        }
+        for (Exc exc : exceptions) {
+            out.println("-");
+            out.println(exc.toYaml("  "));
+        }
+    }
+    
+    /**
+     * The main method to execute the command-line application.
+     * 
+     * @param args Command-line arguments.
+     */
+    public static void main(String... args) {
+        int exitCode = new CommandLine(new exc()).execute(args);
+        System.exit(exitCode);
+    }
+
+    // ------ Inner Classes 
+    
+    /**
+     * Represents an exception entry extracted from the log file.
+     */
+    class Exc implements TableRow {
+
+        /**
+         * Log file name, when several files are merged.
+         */
+        public String src;
+
+        public int lno;
+        public String time;
+        public String sig;
+        public String cmt;
+
+        /**
+         * Fingerprint of the top stack frames, with `--frames`.
+         */
+        public String fp;
+
+        /**
+         * Top stack frame without its location, with `--frames`.
+         */
+        public String frame;
         
         /**
-         * Creates a new exception entry with the specified details.
+         * Converts this exception entry to a YAML-formatted string.
          * 
-         * @param sig The signature of the exception.
-         * @param time The timestamp when the exception occurred.
-         * @param cmt An optional comment associated with the exception.
-         * @return A new Exc object representing the exception.
+         * @param indent The indentation to use for formatting.
+         * @return A YAML representation of the exception entry.
          */
-        Exc createExc(String sig, String time, String cmt) {
-            Exc exc = new Exc();
-            exc.lno = lno;
-            exc.sig = sig;
-            exc.time = time;
-            exc.cmt = cmt;
-            return exc;
+        public String toYaml(String indent) {
+            StringBuilder sb = new StringBuilder();
+            if (src != null) {
+                sb.append(indent + "src: " + src + "\n");
+            }
+            sb.append(indent + "lno: " + lno + "\n");
+            sb.append(indent + "time: " + time + "\n");
+            sb.append(indent + "sig: " + sig + "\n");
+            sb.append(indent + "cmt: " + (cmt == null ? "" : cmt) + "\n");
+            if (frames > 0) {
+                sb.append(indent + "fp: " + (fp == null ? "" : fp) + "\n");
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public Object get(String column) {
+            return switch (column) {
+                case "src" -> src;
+                case "lno" -> lno;
+                case "time" -> time;
+                case "sig" -> sig;
+                case "cmt" -> cmt;
+                case "fp" -> fp;
+                default -> null;
+            };
+        }
+
+    }
+    
+    /**
+     * Counts of one exception signature.
+     */
+    class ExcStats implements TableRow {
+
+        String sig;
+        String fp;
+        String frame;
+        long count;
+        int firstLno;
+        String firstTime;
+        int lastLno;
+        String lastTime;
+
+        /**
+         * Comment to number of occurrences.
+         */
+        Map<String, Long> comments = new HashMap<>();
+
+        /**
+         * Minute (epoch millis / 60000) to number of occurrences.
+         */
+        TreeMap<Long, Long> minutes = new TreeMap<>();
+
+        /**
+         * Converts these counts to a YAML-formatted string.
+         * 
+         * @param indent The indentation to use for formatting.
+         * @return A YAML representation of the counts.
+         */
+        public String toYaml(String indent) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(indent + "sig: " + sig + "\n");
+            if (frames > 0) {
+                sb.append(indent + "fp: " + (fp == null ? "" : fp) + "\n");
+                sb.append(indent + "frame: " + (frame == null ? "" : frame) + "\n");
+            }
+            sb.append(indent + "count: " + count + "\n");
+            sb.append(indent + "first_lno: " + firstLno + "\n");
+            sb.append(indent + "first_time: " + (firstTime == null ? "" : firstTime) + "\n");
+            sb.append(indent + "last_lno: " + lastLno + "\n");
+            sb.append(indent + "last_time: " + (lastTime == null ? "" : lastTime) + "\n");
+            sb.append(indent + "comments:" + (comments.isEmpty() ? " {}" : "") + "\n");
+            comments.entrySet().stream()
+                    .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                    .forEach(e -> sb.append(indent + "  " + quoteYaml(e.getKey()) + ": " + e.getValue() + "\n"));
+            sb.append(indent + "minutes:" + (minutes.isEmpty() ? " {}" : "") + "\n");
+            for (Map.Entry<Long, Long> e : minutes.entrySet()) {
+                sb.append(indent + "  \"" + ExcAggregator.formatMinute(e.getKey()) + "\": " + e.getValue() + "\n");
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public Object get(String column) {
+            return switch (column) {
+                case "sig" -> sig;
+                case "fp" -> fp;
+                case "frame" -> frame;
+                case "count" -> count;
+                case "first_lno" -> firstLno;
+                case "first_time" -> firstTime;
+                case "last_lno" -> lastLno;
+                case "last_time" -> lastTime;
+                case "comments" -> topComments();
+                case "minutes" -> peakMinute();
+                default -> null;
+            };
+        }
+
+        /**
+         * @return  most frequent comments with their counts, one per line
+         */
+        String topComments() {
+            return comments.entrySet().stream()
+                    .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                    .limit(5)
+                    .map(e -> e.getKey() + " (" + e.getValue() + ")")
+                    .collect(Collectors.joining("\n"));
+        }
+
+        /**
+         * @return  number of minutes with this exception and the busiest minute
+         */
+        String peakMinute() {
+            if (minutes.isEmpty()) {
+                return null;
+            }
+            Map.Entry<Long, Long> peak = Collections.max(minutes.entrySet(), Map.Entry.comparingByValue());
+            return minutes.size() + " min, peak " + peak.getValue() + " at " + ExcAggregator.formatMinute(peak.getKey());
+        }
+
+    }
+
+    /**
+     * Aggregates exception entries into one {@link ExcStats} record per signature
+     * and stack fingerprint, so that memory depends on the number of distinct
+     * exceptions, not on the log size.
+     */
+    class ExcAggregator implements Consumer<Exc> {
+
+        /**
+         * Maximum number of distinct comments kept for each signature.
+         */
+        static final int MAX_COMMENTS = 50;
+
+        static final String OTHER_COMMENTS = "(other)";
+
+        static final DateTimeFormatter MINUTE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+        Map<String, ExcStats> stats = new HashMap<>();
+
+        /**
+         * Number of aggregated entries.
+         */
+        long total;
+
+        TimestampExtractor tse;
+
+        // Cache for consecutive entries with the same timestamp
+        String cachedTime;
+        long cachedMinute;
+
+        ExcAggregator(TimestampExtractor tse) {
+            this.tse = tse;
+        }
+
+        @Override
+        public void accept(Exc exc) {
+            total++;
+            String key = exc.fp == null ? exc.sig : exc.sig + " " + exc.fp;
+            ExcStats st = stats.get(key);
+            if (st == null) {
+                st = new ExcStats();
+                st.sig = exc.sig;
+                st.fp = exc.fp;
+                st.frame = exc.frame;
+                st.firstLno = exc.lno;
+                st.firstTime = exc.time;
+                stats.put(key, st);
+            }
+            st.count++;
+            st.lastLno = exc.lno;
+            st.lastTime = exc.time;
+
+            if (exc.cmt != null) {
+                String cmt = exc.cmt;
+                if (!st.comments.containsKey(cmt) && st.comments.size() >= MAX_COMMENTS) {
+                    cmt = OTHER_COMMENTS;
+                }
+                st.comments.merge(cmt, 1L, Long::sum);
+            }
+
+            if (exc.time != null) {
+                if (!exc.time.equals(cachedTime)) {
+                    cachedTime = exc.time;
+                    cachedMinute = Math.floorDiv(tse.parse(exc.time).getTime(), 60_000L);
+                }
+                st.minutes.merge(cachedMinute, 1L, Long::sum);
+            }
+        }
+
+        /**
+         * @return  records sorted by count, most frequent first
+         */
+        List<ExcStats> sorted() {
+            List<ExcStats> list = new ArrayList<>(stats.values());
+            list.sort(Comparator.comparingLong((ExcStats st) -> -st.count)
+                                .thenComparingInt(st -> st.firstLno));
+            return list;
+        }
+
+        /**
+         * Outputs the aggregated records in YAML format.
+         * 
+         * @param out The PrintStream to output records.
+         */
+        void print(PrintStream out) {
+            for (ExcStats st : sorted()) {
+                out.println("-");
+                out.println(st.toYaml("  "));
+            }
+        }
+
+        static String formatMinute(long minute) {
+            return MINUTE_FORMAT.format(Instant.ofEpochMilli(minute * 60_000L).atZone(ZoneId.systemDefault()));
+        }
+
+    }
+
+    /**
+     * Time series of the heap numbers in `[memoryInfo]` lines, and the number of lines for each URI.
+     * <p>
+     * A line like `[memoryInfo] uri=/api/orders, free=123, total=456, max=789`
+     * adds one point. The points are kept in primitive arrays in the order of the log,
+     * with the URI as an index into `uris`, so that long logs need little memory.
+     * </p>
+     */
+    class MemorySeries {
+
+        static final DateTimeFormatter CSV_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS");
+
+        /**
+         * Epoch millis of each point, or Long.MIN_VALUE before the first timestamp.
+         */
+        long[] times = new long[1024];
+        long[] free = new long[1024];
+        long[] total = new long[1024];
+        long[] max = new long[1024];
+        int[] uriIds = new int[1024];
+        int size;
+
+        /**
+         * Points at the start that have no timestamp yet, filled in by {@link #append}.
+         */
+        int missingTime;
+
+        List<String> uris = new ArrayList<>();
+        Map<String, Integer> uriIndex = new HashMap<>();
+        long[] uriCounts = new long[64];
+
+        /**
+         * Time range of the points to keep.
+         */
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+
+        // Cache for consecutive lines with the same timestamp
+        String cachedTime;
+        long cachedMillis;
+
+        /**
+         * Adds the point of a `[memoryInfo]` line.
+         * Missing numbers are stored as -1.
+         * 
+         * @param tse The TimestampExtractor to parse the time with.
+         * @param line The log line.
+         * @param time The timestamp of the line, or the last one before it.
+         * @param uri The URI, as extracted by {@link TimestampExtractor#extractComment(CharSequence)}.
+         */
+        void add(TimestampExtractor tse, CharSequence line, String time, String uri) {
+            long millis = Long.MIN_VALUE;
+            if (time != null) {
+                if (!time.equals(cachedTime)) {
+                    cachedTime = time;
+                    cachedMillis = tse.parse(time).getTime();
+                }
+                millis = cachedMillis;
+            }
+            boolean bounded = from != Long.MIN_VALUE || to != Long.MAX_VALUE;
+            if (bounded && (millis == Long.MIN_VALUE || millis < from || millis > to)) {
+                return;
+            }
+            if (millis == Long.MIN_VALUE && missingTime == size) {
+                missingTime++;
+            }
+            long f = -1;
+            long t = -1;
+            long m = -1;
+            int k = CharSequences.indexOf(line, SimpleTimestampExtractor.MEMORY_INFO, 0);
+            k = CharSequences.indexOf(line, ',', k + SimpleTimestampExtractor.MEMORY_INFO.length());
+            int n = line.length();
+            while (k >= 0 && k < n) {
+                while (k < n && (line.charAt(k) == ',' || line.charAt(k) == ' ')) {
+                    k++;
+                }
+                int eq = k;
+                while (eq < n && line.charAt(eq) >= 'a' && line.charAt(eq) <= 'z') {
+                    eq++;
+                }
+                if (eq == k || eq >= n || line.charAt(eq) != '=') {
+                    break;
+                }
+                long value = 0;
+                int end = eq + 1;
+                while (end < n && line.charAt(end) >= '0' && line.charAt(end) <= '9') {
+                    value = value * 10 + (line.charAt(end) - '0');
+                    end++;
+                }
+                if (end > eq + 1) {
+                    if (CharSequences.startsWith(line, "free=", k)) {
+                        f = value;
+                    } else if (CharSequences.startsWith(line, "total=", k)) {
+                        t = value;
+                    } else if (CharSequences.startsWith(line, "max=", k)) {
+                        m = value;
+                    }
+                }
+                k = end;
+            }
+            addPoint(millis, f, t, m, uri);
+        }
+
+        private void addPoint(long millis, long f, long t, long m, String uri) {
+            if (size == times.length) {
+                int capacity = size * 2;
+                times = Arrays.copyOf(times, capacity);
+                free = Arrays.copyOf(free, capacity);
+                total = Arrays.copyOf(total, capacity);
+                max = Arrays.copyOf(max, capacity);
+                uriIds = Arrays.copyOf(uriIds, capacity);
+            }
+            Integer id = uriIndex.get(uri);
+            if (id == null) {
+                id = uris.size();
+                uris.add(uri);
+                uriIndex.put(uri, id);
+                if (id == uriCounts.length) {
+                    uriCounts = Arrays.copyOf(uriCounts, id * 2);
+                }
+            }
+            uriCounts[id]++;
+            times[size] = millis;
+            free[size] = f;
+            total[size] = t;
+            max[size] = m;
+            uriIds[size] = id;
+            size++;
+        }
+
+        /**
+         * Appends the points of the next chunk or log file.
+         * 
+         * @param next The points to append.
+         * @param lastTime The timestamp for the points of `next` that have none, or null.
+         */
+        void append(MemorySeries next, Date lastTime) {
+            for (int i = 0; i < next.size; i++) {
+                long millis = next.times[i];
+                if (i < next.missingTime && lastTime != null) {
+                    millis = lastTime.getTime();
+                }
+                if (millis == Long.MIN_VALUE && missingTime == size) {
+                    missingTime++;
+                }
+                addPoint(millis, next.free[i], next.total[i], next.max[i], next.uris.get(next.uriIds[i]));
+            }
+        }
+
+        /**
+         * Sorts the points by time, keeping the order of points with the same time.
+         */
+        void sortByTime() {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparingLong(i -> times[i]));
+            long[] t = new long[size];
+            long[] f = new long[size];
+            long[] tt = new long[size];
+            long[] m = new long[size];
+            int[] u = new int[size];
+            for (int i = 0; i < size; i++) {
+                t[i] = times[order[i]];
+                f[i] = free[order[i]];
+                tt[i] = total[order[i]];
+                m[i] = max[order[i]];
+                u[i] = uriIds[order[i]];
+            }
+            times = t;
+            free = f;
+            total = tt;
+            max = m;
+            uriIds = u;
+        }
+
+        /**
+         * Writes the time series to `<base>.memory.csv` and the URI counts,
+         * most frequent first, to `<base>.uris.csv`.
+         * 
+         * @param outputBase The output file name without the extension.
+         * @throws IOException If an output file cannot be created.
+         */
+        void writeCsv(String outputBase) throws IOException {
+            String outName = outputBase + ".memory.csv";
+            try (PrintStream f = new PrintStream(new BufferedOutputStream(new FileOutputStream(outName)),
+                                                 false, StandardCharsets.UTF_8)) {
+                f.println("time,uri,free,total,max");
+                for (int i = 0; i < size; i++) {
+                    String time = times[i] == Long.MIN_VALUE ? ""
+                            : CSV_TIME_FORMAT.format(Instant.ofEpochMilli(times[i]).atZone(ZoneId.systemDefault()));
+                    f.println(time + "," + csv(uris.get(uriIds[i])) + "," + free[i] + "," + total[i] + "," + max[i]);
+                }
+            }
+            if (!quiet) {
+                out.println("File created: " + outName);
+            }
+
+            outName = outputBase + ".uris.csv";
+            List<Integer> ids = new ArrayList<>();
+            for (int i = 0; i < uris.size(); i++) {
+                ids.add(i);
+            }
+            ids.sort(Comparator.comparingLong((Integer i) -> -uriCounts[i]).thenComparing(uris::get));
+            try (PrintStream f = new PrintStream(new BufferedOutputStream(new FileOutputStream(outName)),
+                                                 false, StandardCharsets.UTF_8)) {
+                f.println("uri,count");
+                for (int i : ids) {
+                    f.println(csv(uris.get(i)) + "," + uriCounts[i]);
+                }
+            }
+            if (!quiet) {
+                out.println("File created: " + outName);
+            }
+        }
+
+        static String csv(String value) {
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0) {
+                return value;
+            }
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+
+    }
+
+    /**
+     * Processes log text to extract exceptions using a specified timestamp extractor.
+     */
+    class ExcProcessor {
+
+        int lno;
+
+        /**
+         * Number of lines scanned, which differs from `lno` if the scan did not start
+         * at the beginning of the log.
+         */
+        long linesRead;
+
+        /**
+         * Counts the bytes scanned for the progress of `--jobs`, or null.
+         */
+        LongAdder bytesRead;
+
+        /**
+         * Events that are reported as marker entries, by default only SERVER RESTART.
+         */
+        EventMatcher events = EventMatcher.DEFAULT;
+
+        /**
+         * Smallest chunk for the parallel scan.
+         */
+        static final long MIN_CHUNK_SIZE = 4 << 20;
+
+        /**
+         * Number of lines between two updates of {@link #bytesRead}, a power of 2.
+         */
+        static final int PROGRESS_LINES = 1 << 16;
+
+        /**
+         * First block read backwards by {@link #processLast}, each further block is twice as large.
+         */
+        static final long LAST_BLOCK_SIZE = 1 << 20;
+
+        TimestampExtractor tse;
+        LinkedList<Exc> exceptions;
+        String lastTime;
+        String lastComment;
+
+        /**
+         * Receives the entries instead of `exceptions`, if set.
+         */
+        Consumer<Exc> sink;
+
+        /**
+         * Log file name for the entries, when several files are merged.
+         */
+        String source;
+
+        // {{{ Stack fingerprint
+        /**
+         * Number of top stack frames in the fingerprint, 0 to skip stack traces.
+         */
+        int frames;
+
+        /**
+         * Collects the `[memoryInfo]` lines, or null.
+         */
+        MemorySeries memory;
+
+        /**
+         * Entry whose stack frames are being read, emitted at the end of its stack trace.
+         */
+        Exc pending;
+        int pendingFrames;
+        long pendingHash;
+
+        static final long FNV_OFFSET = 0xcbf29ce484222325L;
+        static final long FNV_PRIME = 0x100000001b3L;
+        // }}}
+
+        // {{{ Chunk state for the parallel scan
+        /**
+         * Whether this processor scans one chunk of a larger log.
+         */
+        boolean chunk;
+
+        /**
+         * START OF LOG entry of this chunk, dropped if an earlier chunk has a timestamp.
+         */
+        Exc chunkStart;
+
+        /**
+         * Entries created before the first timestamp of this chunk.
+         */
+        List<Exc> missingTime = new ArrayList<>();
+
+        /**
+         * Entries created before the first comment of this chunk.
+         */
+        List<Exc> missingComment = new ArrayList<>();
+        // }}}
+        
+        /**
+         * Processes the lines of the given source and extracts exceptions.
+         * 
+         * @param in The source of log lines.
+         * @param tse The TimestampExtractor to use for extracting timestamps.
+         * @return A list of extracted exceptions.
+         * @throws IOException If an I/O error occurs during processing.
+         */        
+        public List<Exc> process(LineSource in, TimestampExtractor tse)
+                throws IOException {
+            begin(tse);
+            scan(in);
+            return endOfLog();
+        }
+
+        /**
+         * Splits the log file into chunks at line boundaries, scans the chunks
+         * on a fork-join pool and joins the results.
+         * <p>
+         * Each chunk is scanned without knowing the last timestamp and comment
+         * of the previous chunks, so those are carried over while joining,
+         * together with the line numbers and the START OF LOG entry.
+         * The result is the same as for {@link #process(LineSource, TimestampExtractor)}.
+         * </p>
+         * 
+         * @param logPath The log file; its encoding must be ASCII-compatible.
+         * @param charset The encoding of the log file.
+         * @param tseFactory Creates a TimestampExtractor for each chunk.
+         * @param threads The number of threads to use.
+         * @return A list of extracted exceptions.
+         * @throws IOException If an I/O error occurs during processing.
+         */
+        public List<Exc> processParallel(Path logPath, Charset charset,
+                                         Supplier<TimestampExtractor> tseFactory, int threads)
+                throws IOException {
+            try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.READ)) {
+                long[] bounds = splitChunks(channel, threads * 4L);
+                List<Callable<ExcProcessor>> tasks = new ArrayList<>();
+                for (int i = 0; i + 1 < bounds.length; i++) {
+                    long start = bounds[i];
+                    long end = bounds[i + 1];
+                    tasks.add(() -> {
+                        ExcProcessor chunkProc = new ExcProcessor();
+                        chunkProc.chunk = true;
+                        chunkProc.frames = frames;
+                        chunkProc.events = events;
+                        chunkProc.bytesRead = bytesRead;
+                        if (memory != null) {
+                            chunkProc.memory = new MemorySeries();
+                        }
+                        try (LineSource in = new MappedLineReader(channel, false, start, end,
+                                                                  charset, MappedLineReader.WINDOW_SIZE)) {
+                            chunkProc.begin(tseFactory.get());
+                            chunkProc.scan(in);
+                        }
+                        return chunkProc;
+                    });
+                }
+
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    begin(tseFactory.get());
+                    for (Future<ExcProcessor> f : pool.invokeAll(tasks)) {
+                        join(f.get());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Parallel scan interrupted");
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new IllegalStateException(e.getCause());
+                } finally {
+                    pool.shutdown();
+                }
+            }
+            return endOfLog();
+        }
+
+        /**
+         * Processes the end of a log file with at least `count` entries, reading it backwards
+         * in blocks. Each block is scanned like a chunk of the parallel scan, then the blocks
+         * are joined in the order of the log.
+         * 
+         * @param logPath The path to the log file.
+         * @param charset The encoding of the log file; must be ASCII-compatible.
+         * @param tseFactory Creates a TimestampExtractor for each block.
+         * @param count The number of entries to report.
+         * @param index The time index of the log, or null.
+         * @return The last `count` entries and END OF LOG.
+         * @throws IOException If an I/O error occurs during processing.
+         */
+        public List<Exc> processLast(Path logPath, Charset charset, Supplier<TimestampExtractor> tseFactory,
+                                     int count, TimeIndex index) throws IOException {
+            Consumer<Exc> target = sink;
+            sink = null;
+            try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.READ)) {
+                LinkedList<ExcProcessor> blocks = new LinkedList<>();
+                ByteBuffer buf = ByteBuffer.allocate(8192);
+                long size = channel.size();
+                long start = size;
+                long blockSize = LAST_BLOCK_SIZE;
+                int found = 0;
+                while (start > 0 && (found < count || (index == null && !hasContext(blocks, count)))) {
+                    long end = start;
+                    start = blockStart(channel, end, blockSize, buf);
+                    ExcProcessor blockProc = new ExcProcessor();
+                    blockProc.chunk = true;
+                    blockProc.frames = frames;
+                    blockProc.events = events;
+                    blockProc.bytesRead = bytesRead;
+                    if (memory != null) {
+                        blockProc.memory = new MemorySeries();
+                    }
+                    try (LineSource in = new MappedLineReader(channel, false, start, end,
+                                                              charset, MappedLineReader.WINDOW_SIZE)) {
+                        blockProc.begin(tseFactory.get());
+                        blockProc.scan(in);
+                    }
+                    blocks.addFirst(blockProc);
+                    found += blockProc.exceptions.size() - (blockProc.chunkStart == null ? 0 : 1);
+                    blockSize *= 2;
+                }
+                out.println("Scanning: bytes " + start + ".." + size + " of " + size);
+
+                begin(tseFactory.get());
+                if (index != null) {
+                    // Continue from the indexed line before the first block
+                    Checkpoint base = index.findBefore(start);
+                    restore(base);
+                    try (LineSource in = new MappedLineReader(channel, false, base.offset, start,
+                                                              charset, MappedLineReader.WINDOW_SIZE)) {
+                        scan(in);
+                    }
+                } else {
+                    lno = MappedLineReader.countLines(channel, 0, start);
+                }
+                for (ExcProcessor block : blocks) {
+                    join(block);
+                }
+            }
+            endOfLog();
+            sink = target;
+            return keepLast(count);
+        }
+
+        /**
+         * Checks whether the last `count` entries of the blocks have their timestamps
+         * and comments, that is, an earlier block has one for each entry that has none.
+         * Comments are only required once the blocks contain one, so that a log without
+         * `[memoryInfo]` lines is not read to its beginning.
+         * 
+         * @param blocks The blocks read so far, in the order of the log.
+         * @param count The number of entries to report.
+         * @return false if an earlier block must be read.
+         */
+        boolean hasContext(List<ExcProcessor> blocks, int count) {
+            boolean comments = blocks.stream().anyMatch(block -> block.lastComment != null);
+            int remaining = count;
+            boolean needsTime = false;
+            boolean needsComment = false;
+            for (int i = blocks.size() - 1; i >= 0; i--) {
+                ExcProcessor block = blocks.get(i);
+                if (block.lastTime != null) {
+                    needsTime = false;
+                }
+                if (block.lastComment != null) {
+                    needsComment = false;
+                }
+                if (remaining == 0 && !needsTime && !needsComment) {
+                    return true;
+                }
+                Iterator<Exc> it = block.exceptions.descendingIterator();
+                while (it.hasNext() && remaining > 0) {
+                    Exc exc = it.next();
+                    if (exc == block.chunkStart) {
+                        // START OF LOG only if there is no earlier timestamp
+                        needsTime = true;
+                    } else {
+                        remaining--;
+                        needsTime |= block.missingTime.contains(exc);
+                        needsComment |= comments && block.missingComment.contains(exc);
+                    }
+                }
+            }
+            return !needsTime && !needsComment;
+        }
+
+        /**
+         * Finds the start of a block that ends at `end`, at the start of a line
+         * that is not part of a stack trace.
+         * 
+         * @param channel The log file.
+         * @param end The end of the block.
+         * @param blockSize The desired size of the block.
+         * @param buf The buffer to read with.
+         * @return The start of the block, 0 at the beginning of the log.
+         * @throws IOException If the file cannot be read.
+         */
+        long blockStart(FileChannel channel, long end, long blockSize, ByteBuffer buf) throws IOException {
+            long pos = end - blockSize;
+            while (pos > 0) {
+                long start = nextLineStart(channel, pos, buf);
+                if (start >= 0 && start < end) {
+                    return start;
+                }
+                pos -= blockSize;
+            }
+            return 0;
+        }
+
+        /**
+         * Keeps only the last `count` entries and END OF LOG,
+         * and passes them to the sink if there is one.
+         * 
+         * @param count The number of entries to keep.
+         * @return The kept entries, or an empty list if they were passed to the sink.
+         */
+        List<Exc> keepLast(int count) {
+            LinkedList<Exc> all = exceptions;
+            exceptions = new LinkedList<>();
+            Exc end = null;
+            if (!all.isEmpty() && all.getLast().sig.equals("END OF LOG")) {
+                end = all.removeLast();
+            }
+            while (all.size() > count) {
+                all.removeFirst();
+            }
+            for (Exc exc : all) {
+                emit(exc);
+            }
+            if (end != null) {
+                emit(end);
+            }
+            return exceptions;
+        }
+
+        /**
+         * Finds chunk boundaries, each one at the start of a line.
+         * 
+         * @param channel The log file.
+         * @param count The desired number of chunks.
+         * @return Chunk boundaries, starting with 0 and ending with the file size.
+         * @throws IOException If the file cannot be read.
+         */
+        long[] splitChunks(FileChannel channel, long count) throws IOException {
+            long size = channel.size();
+            long chunkSize = Math.max(size / count, MIN_CHUNK_SIZE);
+            List<Long> bounds = new ArrayList<>();
+            bounds.add(0L);
+            ByteBuffer buf = ByteBuffer.allocate(8192);
+            long pos = chunkSize;
+            while (pos < size) {
+                long next = nextLineStart(channel, pos, buf);
+                if (next < 0) {
+                    break;
+                }
+                bounds.add(next);
+                pos = next + chunkSize;
+            }
+            bounds.add(size);
+            return bounds.stream().mapToLong(Long::longValue).toArray();
+        }
+
+        /**
+         * Finds the start of the next line after `pos` that does not begin with whitespace,
+         * so that a chunk boundary never falls inside a stack trace.
+         * 
+         * @param channel The log file.
+         * @param pos The position to search from.
+         * @param buf The buffer to read with.
+         * @return The position of the line start, or -1 if there is none.
+         * @throws IOException If the file cannot be read.
+         */
+        long nextLineStart(FileChannel channel, long pos, ByteBuffer buf) throws IOException {
+            byte prev = 0;
+            while (true) {
+                buf.clear();
+                int n = channel.read(buf, pos);
+                if (n <= 0) {
+                    return -1;
+                }
+                for (int i = 0; i < n; i++) {
+                    byte b = buf.get(i);
+                    if (prev == '\n' && b != ' ' && b != '\t') {
+                        return pos + i;
+                    }
+                    prev = b;
+                }
+                pos += n;
+            }
+        }
+
+        /**
+         * Appends the results of the next chunk, moving its line numbers
+         * after the lines already joined and filling in the timestamp and comment
+         * carried over from the previous chunks.
+         * 
+         * @param next The processor that scanned the next chunk.
+         */
+        void join(ExcProcessor next) {
+            for (Exc exc : next.missingTime) {
+                exc.time = lastTime;
+            }
+            for (Exc exc : next.missingComment) {
+                exc.cmt = lastComment;
+            }
+            if (memory != null) {
+                memory.append(next.memory, lastTime == null ? null : tse.parse(lastTime));
+            }
+            for (Exc exc : next.exceptions) {
+                if (exc == next.chunkStart && lastTime != null) {
+                    continue;
+                }
+                exc.lno += lno;
+                emit(exc);
+            }
+            lno += next.lno;
+            linesRead += next.linesRead;
+            if (next.lastTime != null) {
+                lastTime = next.lastTime;
+            }
+            if (next.lastComment != null) {
+                lastComment = next.lastComment;
+            }
+        }
+
+        /**
+         * Resets the processor to the beginning of a log.
+         * 
+         * @param tse The TimestampExtractor to use for extracting timestamps.
+         */
+        void begin(TimestampExtractor tse) {
+            this.tse = tse;
+            exceptions = new LinkedList<>();
+            lno = 0;
+            linesRead = 0;
+            lastTime = null;
+            lastComment = null;
+        }
+
+        /**
+         * Continues processing from a checkpoint.
+         * 
+         * @param cp The checkpoint with the line number, timestamp and comment to continue from.
+         */
+        void restore(Checkpoint cp) {
+            lno = cp.lno;
+            lastTime = cp.lastTime;
+            lastComment = cp.lastComment;
+        }
+
+        /**
+         * Stores the current line number, timestamp and comment into a checkpoint.
+         * 
+         * @param cp The checkpoint to update.
+         */
+        void save(Checkpoint cp) {
+            cp.lno = lno;
+            cp.lastTime = lastTime;
+            cp.lastComment = lastComment;
+        }
+
+        /**
+         * Processes all lines of the given source, without adding END OF LOG.
+         * 
+         * @param in The source of log lines.
+         * @throws IOException If an I/O error occurs during processing.
+         */
+        void scan(LineSource in) throws IOException {
+            if (in instanceof MappedLineReader) {
+                scanBytes((MappedLineReader) in);
+                return;
+            }
+            String line;
+            long reported = 0;
+            while ((line = in.readLine()) != null) {
+                lno++;
+                linesRead++;
+                processLine(line);
+                if (bytesRead != null && (linesRead & (PROGRESS_LINES - 1)) == 0) {
+                    reported = reportBytes(in, reported);
+                }
+            }
+            reportBytes(in, reported);
+            flushPending();
+        }
+
+        /**
+         * Processes all lines of a mapped file on their raw bytes.
+         * ASCII lines are not decoded at all, only the fields that end up in an entry
+         * are copied into strings. Other lines are decoded as usual.
+         * 
+         * @param in The reader of the mapped file.
+         * @throws IOException If an I/O error occurs during processing.
+         */
+        void scanBytes(MappedLineReader in) throws IOException {
+            ByteLine line = new ByteLine();
+            long reported = 0;
+            while (in.readLine(line)) {
+                lno++;
+                linesRead++;
+                processLine(line.isAscii() ? line : in.decode(line));
+                if (bytesRead != null && (linesRead & (PROGRESS_LINES - 1)) == 0) {
+                    reported = reportBytes(in, reported);
+                }
+            }
+            reportBytes(in, reported);
+            flushPending();
+        }
+
+        /**
+         * Adds the bytes read from the source since the last report to {@link #bytesRead}.
+         * 
+         * @param in The source being scanned.
+         * @param reported The bytes of the source reported so far.
+         * @return The bytes of the source reported now.
+         */
+        long reportBytes(LineSource in, long reported) {
+            long n = in.bytesRead();
+            if (bytesRead != null && n > reported) {
+                bytesRead.add(n - reported);
+                return n;
+            }
+            return reported;
+        }
+
+        /**
+         * Adds END OF LOG after the scanned lines.
+         * 
+         * @return A list of extracted exceptions.
+         */
+        List<Exc> endOfLog() {
+            // END OF LOG is reported one line past the last one
+            lno++;
+            if (lastTime != null) {
+                emit(createExc("END OF LOG", lastTime, null));
+            }
+            return exceptions;
+        }
+
+        /**
+         * Processes a single log line with number `lno`.
+         * 
+         * @param line The log line to process, a String or an ASCII {@link ByteLine}.
+         */
+        void processLine(CharSequence line) {
+            if (pending != null && !addFrame(line)) {
+                flushPending();
+            }
+
+            String tstamp = tse.extractTimestamp(line);
+            if (tstamp != null) {
+                if (lastTime == null) {
+                    chunkStart = createExc("START OF LOG", tstamp, null);
+                    emit(chunkStart);
+                }
+                lastTime = tstamp;
+
+                BitSet found = events.match(line);
+                if (found != null) {
+                    for (int i = found.nextSetBit(0); i >= 0; i = found.nextSetBit(i + 1)) {
+                        emit(createExc(events.name(i), tstamp, null));
+                    }
+                }
+            }
+
+            String comment = tse.extractComment(line);
+            if (comment != null) {
+                lastComment = comment;
+                if (memory != null) {
+                    memory.add(tse, line, lastTime, comment);
+                }
+            }
+
+            // process exceptions
+            String sig = extractException(line);
+            if (sig != null) {
+                Exc exc = createExc(sig, lastTime, lastComment);
+                if (frames > 0) {
+                    // Wait for the stack frames
+                    flushPending();
+                    pending = exc;
+                    pendingFrames = 0;
+                    pendingHash = FNV_OFFSET;
+                } else {
+                    emit(exc);
+                }
+                if (chunk && lastTime == null) {
+                    missingTime.add(exc);
+                }
+                if (chunk && lastComment == null) {
+                    missingComment.add(exc);
+                }
+            }
+        }
+        
+        /**
+         * Adds a line of the stack trace to the fingerprint of the pending entry.
+         * Only the top `frames` lines like `\tat pkg.Class.method(File.java:123)` are hashed,
+         * without their location in parentheses, so that line numbers do not matter.
+         * Lines like `\t... 12 more` continue the stack trace but are not hashed.
+         * 
+         * @param line The log line after the pending entry.
+         * @return false if the line is not part of the stack trace.
+         */
+        boolean addFrame(CharSequence line) {
+            int n = line.length();
+            int k = 0;
+            while (k < n && (line.charAt(k) == ' ' || line.charAt(k) == '\t')) {
+                k++;
+            }
+            if (k == 0) {
+                return false;
+            }
+            if (CharSequences.startsWith(line, "...", k)) {
+                return true;
+            }
+            if (!CharSequences.startsWith(line, "at ", k)) {
+                return false;
+            }
+            if (pendingFrames < frames) {
+                k += 3;
+                int end = CharSequences.indexOf(line, '(', k);
+                if (end < 0) {
+                    end = n;
+                }
+                if (pendingFrames == 0) {
+                    pending.frame = line.subSequence(k, end).toString();
+                }
+                long h = pendingHash;
+                for (int i = k; i < end; i++) {
+                    h = (h ^ line.charAt(i)) * FNV_PRIME;
+                }
+                pendingHash = (h ^ '\n') * FNV_PRIME;
+                pendingFrames++;
+            }
+            return true;
+        }
+
+        /**
+         * Emits the pending entry with the fingerprint of its stack frames.
+         */
+        void flushPending() {
+            if (pending == null) {
+                return;
+            }
+            if (pendingFrames > 0) {
+                pending.fp = String.format("%016x", pendingHash);
+            }
+            emit(pending);
+            pending = null;
+        }
+
+        /**
+         * Sets the events that are reported as marker entries, such as restarts.
+         * 
+         * @param events The matcher for the event signatures.
+         */        
+        void setEvents(EventMatcher events) {
+            this.events = events;
+        }
+        
+        /**
+         * Passes an entry to the sink, or adds it to `exceptions` if there is no sink.
+         * Chunks of the parallel scan always collect their entries,
+         * they are passed to the sink while joining.
+         * 
+         * @param exc The entry to add.
+         */
+        void emit(Exc exc) {
+            if (sink != null && !chunk) {
+                sink.accept(exc);
+            } else {
+                exceptions.add(exc);
+            }
+        }
+
+        /**
+         * Creates a new exception entry with the specified details.
+         * 
+         * @param sig The signature of the exception.
+         * @param time The timestamp when the exception occurred.
+         * @param cmt An optional comment associated with the exception.
+         * @return A new Exc object representing the exception.
+         */
+        Exc createExc(String sig, String time, String cmt) {
+            Exc exc = new Exc();
+            exc.src = source;
+            exc.lno = lno;
+            exc.sig = sig;
+            exc.time = time;
+            exc.cmt = cmt;
+            return exc;
+        }
+
+        /**
+         * Extracts the exception signature from a log line.
+         * <p>
+         * The line is split into tokens on whitespace, as {@link java.util.StringTokenizer} does,
+         * and each token is trimmed to letters at both ends. The first token that matches
+         * `(([a-z])+\.)+[A-Z][a-zA-Z]*(Exception|Error)` is returned.
+         * Tokens are scanned in place, so only the returned signature is allocated.
+         * </p>
+         * 
+         * @param line The log line to process.
+         * @return The extracted exception signature, or null if none found.
+         */
+        String extractException(CharSequence line) {
+            int n = line.length();
+            int k = 0;
+            while (k < n) {
+                while (k < n && isDelimiter(line.charAt(k))) {
+                    k++;
+                }
+                int start = k;
+                while (k < n && !isDelimiter(line.charAt(k))) {
+                    k++;
+                }
+                int end = k;
+
+                // Trim special characters, keeping only letters
+                while (start < end && !Character.isLetter(line.charAt(start))) {
+                    start++;
+                }
+                while (start < end && !Character.isLetter(line.charAt(end - 1))) {
+                    end--;
+                }
+                if (isExceptionName(line, start, end)) {
+                    return line.subSequence(start, end).toString();
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Same delimiters as the default ones of {@link java.util.StringTokenizer}.
+         */
+        static boolean isDelimiter(char c) {
+            return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+        }
+
+        /**
+         * Checks whether `s[start, end)` is a fully qualified exception name,
+         * i.e. matches `(([a-z])+\.)+[A-Z][a-zA-Z]*(Exception|Error)`.
+         * 
+         * @param s The text to check.
+         * @param start The start of the token.
+         * @param end The end of the token.
+         * @return true if the token is an exception name.
+         */
+        static boolean isExceptionName(CharSequence s, int start, int end) {
+            int k = start;
+
+            // Package: one or more lowercase segments, each followed by a dot
+            int segments = 0;
+            while (k < end && isLower(s.charAt(k))) {
+                while (k < end && isLower(s.charAt(k))) {
+                    k++;
+                }
+                if (k == end || s.charAt(k) != '.') {
+                    return false;
+                }
+                k++;
+                segments++;
+            }
+            if (segments == 0 || k == end || !isUpper(s.charAt(k))) {
+                return false;
+            }
+
+            // Class name: letters only, ending with Exception or Error after the first letter
+            int name = k;
+            for (k = name + 1; k < end; k++) {
+                char c = s.charAt(k);
+                if (!isLower(c) && !isUpper(c)) {
+                    return false;
+                }
+            }
+            return endsWith(s, name + 1, end, "Exception") || endsWith(s, name + 1, end, "Error");
+        }
+
+        static boolean isLower(char c) {
+            return c >= 'a' && c <= 'z';
+        }
+
+        static boolean isUpper(char c) {
+            return c >= 'A' && c <= 'Z';
+        }
+
+        static boolean endsWith(CharSequence s, int start, int end, String suffix) {
+            int n = suffix.length();
+            if (end - start < n) {
+                return false;
+            }
+            for (int i = 0; i < n; i++) {
+                if (s.charAt(end - n + i) != suffix.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+    
+    /**
+     * Row of an HTML table.
+     */
+    interface TableRow {
+
+        /**
+         * @return  value of the column, or null if empty
+         */
+        Object get(String column);
+
+    }
+
+    /**
+     * Writes records as an HTML table, straight to a buffered writer.
+     * Large tables are split into pages of `pageSize` rows:
+     * `<base>.html`, `<base>.2.html`, `<base>.3.html`...
+     */
+    class HtmlTable {
+    
+        List<String> keys;
+        String outputBase;
+        
+        /**
+         * Initializes an HtmlTable instance.
+         * 
+         * @param outputBase The output file name without the `.html` extension.
+         * @param keys The columns of the table.
+         */    
+        HtmlTable(String outputBase, List<String> keys) {
+            this.outputBase = outputBase;
+            this.keys = keys;
+        }
+        
+        /**
+         * Creates the HTML output files from the given records.
+         * 
+         * @param rows The records to include in the HTML table.
+         * @throws IOException If an output file cannot be created.
+         */        
+        void createOutputHtml(List<? extends TableRow> rows) throws IOException {
+            int size = Math.max(pageSize, 1);
+            int pages = Math.max((rows.size() + size - 1) / size, 1);
+            Iterator<? extends TableRow> it = rows.iterator();
+            for (int page = 1; page <= pages; page++) {
+                String outFile = pageName(page);
+                try (BufferedWriter f = Files.newBufferedWriter(Path.of(outFile), StandardCharsets.UTF_8)) {
+                    writePage(f, it, size, page, pages);
+                }
+                if (!quiet) {
+                    out.println("File created: " + outFile);
+                }
+            }
+        }
+
+        String pageName(int page) {
+            return outputBase + (page == 1 ? "" : "." + page) + ".html";
+        }
+        
+        /**
+         * Writes one page with up to `size` rows.
+         */
+        void writePage(BufferedWriter f, Iterator<? extends TableRow> it, int size, int page, int pages)
+                throws IOException {
+            String bootstrapCDN = "https://cdn.jsdelivr.net/npm/bootstrap@5.2.3";
+            f.write(String.format("""
+                <!doctype html>
+                <html lang="en">
+                <head>
+                  <meta charset="utf-8">
+                  <meta name="viewport" content="width=device-width, initial-scale=1">
+                  <link href="%s/dist/css/bootstrap.min.css" rel="stylesheet">
+                </head>
+                <body>
+                  <div class="container">
+                """, bootstrapCDN));
+            writePager(f, page, pages);
+            f.write("""
+                <table class="table">
+                <thead>
+                  <tr>
+                """);
+            for (String key: keys) {
+                f.write("<th scope=\"col\">" + key + "</th>\n");
+            }
+            f.write("""
+                  </tr>
+                </thead>            
+                <tbody>
+                """);
+            for (int n = 0; n < size && it.hasNext(); n++) {
+                TableRow row = it.next();
+                f.write("<tr>\n");
+                for (String key: keys) {
+                    Object value = row.get(key);
+                    f.write("<td>" + (value == null ? "" : escape(value.toString())) + "</td>\n");
+                }
+                f.write("</tr>\n");
+            }
+            f.write("""
+                </tbody>
+                </table>
+                """);
+            writePager(f, page, pages);
+            f.write(String.format("""
+                  </div>
+                  <script src="%s/dist/js/bootstrap.bundle.min.js"></script>
+                </body>
+                </html>
+                """, bootstrapCDN));
+        }
+
+        /**
+         * Writes links to the other pages, if there is more than one.
+         */
+        void writePager(BufferedWriter f, int page, int pages) throws IOException {
+            if (pages == 1) {
+                return;
+            }
+            f.write("<nav><ul class=\"pagination pagination-sm flex-wrap\">\n");
+            for (int p = 1; p <= pages; p++) {
+                String name = Path.of(pageName(p)).getFileName().toString();
+                f.write(String.format("<li class=\"page-item%s\"><a class=\"page-link\" href=\"%s\">%d</a></li>\n",
+                                      p == page ? " active" : "", escape(name), p));
+            }
+            f.write("</ul></nav>\n");
+        }
+
+        /**
+         * Escapes HTML special characters; line breaks become `<br>`.
+         */
+        String escape(String s) {
+            return s.replace("&", "&amp;")
+                    .replace("<", "&lt;")
+                    .replace(">", "&gt;")
+                    .replace("\"", "&quot;")
+                    .replace("\n", "<br>");
+        }
+    
+    }
+    
+
+
+    /**
+     * Live dashboard for `--serve`, an HTTP server that pushes new exceptions and
+     * the aggregated records to browsers over Server-Sent Events.
+     * <p>
+     * Each record is converted to an event once and offered to the queue of each
+     * connected browser; a browser that falls behind by more than
+     * {@link #CLIENT_QUEUE_SIZE} events is disconnected, so a slow browser never
+     * holds up the log processing. New browsers get the last {@link #RECENT_SIZE}
+     * exceptions and the current records.
+     * </p>
+     * <p>
+     * The server is stopped when the log is no longer followed, or by a shutdown hook
+     * when the JVM exits, so that the browsers see the end of their streams.
+     * </p>
+     */
+    class Dashboard implements Closeable {
+
+        static final int CLIENT_QUEUE_SIZE = 10_000;
+
+        static final int RECENT_SIZE = 200;
+
+        /**
+         * Maximum number of aggregated records pushed at a time.
+         */
+        static final int MAX_STATS = 100;
+
+        /**
+         * Message in the queue of a browser: an event to send, or the end of the stream.
+         */
+        sealed interface Message permits Event, Closed {}
+
+        record Event(String text) implements Message {}
+
+        record Closed() implements Message {}
+
+        static final Event KEEP_ALIVE = new Event(": keep-alive\n\n");
+
+        final HttpServer server;
+
+        final ExecutorService executor;
+
+        final List<BlockingQueue<Message>> clients = new CopyOnWriteArrayList<>();
+
+        final ArrayDeque<Event> recent = new ArrayDeque<>();
+
+        Event lastStats;
+
+        boolean closed;
+
+        /**
+         * Starts the server.
+         * 
+         * @param port The port to listen on.
+         * @throws IOException If the server cannot be started.
+         */
+        Dashboard(int port) throws IOException {
+            server = HttpServer.create(new InetSocketAddress(port), 0);
+            server.createContext("/", this::page);
+            server.createContext("/events", this::stream);
+            executor = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "exc-dashboard");
+                t.setDaemon(true);
+                return t;
+            });
+            server.setExecutor(executor);
+            server.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(this::close, "exc-dashboard-stop"));
+        }
+
+        /**
+         * Ends the streams of all browsers and stops the server.
+         * Does nothing if it is already stopped.
+         */
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                for (BlockingQueue<Message> client : clients) {
+                    client.clear();
+                    client.offer(new Closed());
+                }
+                clients.clear();
+            }
+            server.stop(0);
+            executor.shutdownNow();
+        }
+
+        /**
+         * Pushes a new exception to all browsers.
+         * 
+         * @param exc The new entry.
+         */
+        void publish(Exc exc) {
+            Event event = new Event("event: exc\ndata: " + toJson(exc, excColumns()) + "\n\n");
+            synchronized (this) {
+                if (recent.size() == RECENT_SIZE) {
+                    recent.removeFirst();
+                }
+                recent.addLast(event);
+                broadcast(event);
+            }
+        }
+
+        /**
+         * Pushes the most frequent aggregated records to all browsers.
+         * 
+         * @param stats The records, most frequent first.
+         */
+        void publishStats(List<ExcStats> stats) {
+            List<String> columns = statsColumns();
+            Event event = new Event(stats.stream()
+                                          .limit(MAX_STATS)
+                                          .map(st -> toJson(st, columns))
+                                          .collect(Collectors.joining(",", "event: stats\ndata: [", "]\n\n")));
+            synchronized (this) {
+                lastStats = event;
+                broadcast(event);
+            }
+        }
+
+        private void broadcast(Event event) {
+            for (BlockingQueue<Message> client : clients) {
+                if (!client.offer(event)) {
+                    // Too slow, make it disconnect
+                    clients.remove(client);
+                    client.clear();
+                    client.offer(new Closed());
+                }
+            }
+        }
+
+        /**
+         * Answers 404 unless the request is for the given path, since a context
+         * also gets all the paths below its own.
+         * 
+         * @return true if the request was answered.
+         */
+        boolean notFound(HttpExchange ex, String path) throws IOException {
+            if (ex.getRequestURI().getPath().equals(path)) {
+                return false;
+            }
+            ex.sendResponseHeaders(404, -1);
+            ex.close();
+            return true;
+        }
+
+        /**
+         * Sends the dashboard page.
+         */
+        void page(HttpExchange ex) throws IOException {
+            if (notFound(ex, "/")) {
+                return;
+            }
+            byte[] body = PAGE.formatted(escapeHtml(logFile)).getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+            ex.sendResponseHeaders(200, body.length);
+            try (OutputStream os = ex.getResponseBody()) {
+                os.write(body);
+            }
+        }
+
+        /**
+         * Streams events to a browser until it disconnects.
+         */
+        void stream(HttpExchange ex) throws IOException {
+            if (notFound(ex, "/events")) {
+                return;
+            }
+            ex.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+            ex.getResponseHeaders().set("Cache-Control", "no-cache");
+            ex.sendResponseHeaders(200, 0);
+            BlockingQueue<Message> queue = new ArrayBlockingQueue<>(CLIENT_QUEUE_SIZE);
+            synchronized (this) {
+                queue.addAll(recent);
+                if (lastStats != null) {
+                    queue.add(lastStats);
+                }
+                clients.add(queue);
+            }
+            List<Message> batch = new ArrayList<>();
+            try (OutputStream os = ex.getResponseBody()) {
+                while (true) {
+                    Message message = queue.poll(15, TimeUnit.SECONDS);
+                    if (message instanceof Closed) {
+                        break;
+                    }
+                    batch.clear();
+                    batch.add(message == null ? KEEP_ALIVE : message);
+                    queue.drainTo(batch);
+                    for (Message m : batch) {
+                        if (!(m instanceof Event event)) {
+                            return;
+                        }
+                        os.write(event.text().getBytes(StandardCharsets.UTF_8));
+                    }
+                    os.flush();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                // Browser disconnected
+            } finally {
+                clients.remove(queue);
+            }
+        }
+
+        String toJson(TableRow row, List<String> columns) {
+            StringBuilder sb = new StringBuilder("{");
+            for (String column : columns) {
+                Object value = row.get(column);
+                if (sb.length() > 1) {
+                    sb.append(',');
+                }
+                sb.append('"').append(column).append("\":");
+                if (value == null) {
+                    sb.append("null");
+                } else if (value instanceof Number) {
+                    sb.append(value);
+                } else {
+                    appendJsonString(sb, value.toString());
+                }
+            }
+            return sb.append('}').toString();
+        }
+
+        void appendJsonString(StringBuilder sb, String s) {
+            sb.append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '"' -> sb.append("\\\"");
+                    case '\\' -> sb.append("\\\\");
+                    case '\n' -> sb.append("\\n");
+                    case '\r' -> sb.append("\\r");
+                    case '\t' -> sb.append("\\t");
+                    default -> {
+                        if (c < 0x20) {
+                            sb.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            sb.append(c);
+                        }
+                    }
+                }
+            }
+            sb.append('"');
+        }
+
+        String escapeHtml(String s) {
+            return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+        }
+
+        static final String PAGE = """
+            <!doctype html>
+            <html lang="en">
+            <head>
+              <meta charset="utf-8">
+              <meta name="viewport" content="width=device-width, initial-scale=1">
+              <link href="https://cdn.jsdelivr.net/npm/bootstrap@5.2.3/dist/css/bootstrap.min.css" rel="stylesheet">
+              <title>exc %1$s</title>
+            </head>
+            <body>
+              <div class="container-fluid">
+                <h4>%1$s <span id="status" class="badge bg-secondary">connecting</span></h4>
+                <div class="row">
+                  <div class="col-lg-5">
+                    <h5>Signatures</h5>
+                    <table class="table table-sm"><thead id="stats-head"></thead><tbody id="stats"></tbody></table>
+                  </div>
+                  <div class="col-lg-7">
+                    <h5>Latest exceptions</h5>
+                    <table class="table table-sm"><thead id="excs-head"></thead><tbody id="excs"></tbody></table>
+                  </div>
+                </div>
+              </div>
+              <script>
+                const MAX_ROWS = 500;
+                function cells(tag, values) {
+                  const tr = document.createElement('tr');
+                  for (const v of values) {
+                    const td = document.createElement(tag);
+                    td.textContent = v == null ? '' : v;
+                    tr.appendChild(td);
+                  }
+                  return tr;
+                }
+                function head(id, row) {
+                  const thead = document.getElementById(id);
+                  if (!thead.firstChild) thead.appendChild(cells('th', Object.keys(row)));
+                }
+                const source = new EventSource('events');
+                const status = document.getElementById('status');
+                source.onopen = () => { status.textContent = 'live'; status.className = 'badge bg-success'; };
+                source.onerror = () => { status.textContent = 'disconnected'; status.className = 'badge bg-danger'; };
+                source.addEventListener('exc', e => {
+                  const exc = JSON.parse(e.data);
+                  head('excs-head', exc);
+                  const tbody = document.getElementById('excs');
+                  tbody.insertBefore(cells('td', Object.values(exc)), tbody.firstChild);
+                  while (tbody.rows.length > MAX_ROWS) tbody.deleteRow(-1);
+                });
+                source.addEventListener('stats', e => {
+                  const stats = JSON.parse(e.data);
+                  const tbody = document.getElementById('stats');
+                  tbody.replaceChildren(...stats.map(st => cells('td', Object.values(st))));
+                  if (stats.length) head('stats-head', stats[0]);
+                });
+              </script>
+            </body>
+            </html>
+            """;
+
+    }
+
+}
+
+// ------ Outer Classes 
+
+/**
+ * Finds event signatures in log lines, such as restarts, OOM killer messages
+ * or deployment markers.
+ * <p>
+ * All signatures are compiled into one {@link AhoCorasick} automaton, so a line is scanned
+ * once no matter how many signatures there are, at a single table lookup per character.
+ * Events are loaded from a YAML map of event names to one signature or a list of signatures:
+ * </p>
+ * ```yaml
+ * SERVER RESTART: "  :: Spring Boot ::  "
+ * TOMCAT START: "org.apache.catalina.startup.Catalina.start Server startup in"
+ * OOM KILLER:
+ *   - "Out of memory: Killed process"
+ *   - "java.lang.OutOfMemoryError: GC overhead limit exceeded"
+ * ```
+ * <p>
+ * The matcher is immutable, so the same instance can be used by several threads.
+ * </p>
+ */
+class EventMatcher {
+
+    static final String RESTART = "SERVER RESTART";
+
+    static final Map<String, List<String>> DEFAULT_EVENTS = Map.of(RESTART, List.of("  :: Spring Boot ::  "));
+
+    static final EventMatcher DEFAULT = new EventMatcher(DEFAULT_EVENTS);
+
+    private final String[] names;
+
+    private final AhoCorasick automaton;
+
+    /**
+     * Event of each signature of the automaton.
+     */
+    private final int[] signatureEvents;
+
+    /**
+     * Compiles the signatures of the events.
+     * 
+     * @param events The signatures of each event, in the order of reporting.
+     */
+    EventMatcher(Map<String, List<String>> events) {
+        names = events.keySet().toArray(new String[0]);
+        List<int[]> signatures = new ArrayList<>();
+        List<Integer> owners = new ArrayList<>();
+        for (int event = 0; event < names.length; event++) {
+            for (String signature : events.get(names[event])) {
+                signatures.add(signature.chars().toArray());
+                owners.add(event);
+            }
+        }
+        automaton = new AhoCorasick(signatures);
+        signatureEvents = owners.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Loads events from a YAML map of event names to a signature or a list of signatures.
+     * 
+     * @param path The YAML file.
+     * @return The signatures of each event, in the order of the file.
+     * @throws IOException If the file cannot be read or has another structure.
+     */
+    static Map<String, List<String>> load(Path path) throws IOException {
+        Object root;
+        try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            root = new Yaml().load(in);
+        }
+        Map<String, List<String>> events = new LinkedHashMap<>();
+        if (root == null) {
+            return events;
+        }
+        if (!(root instanceof Map)) {
+            throw new IOException(path + ": expected a map of event names to signatures");
+        }
+        for (Map.Entry<?, ?> e : ((Map<?, ?>) root).entrySet()) {
+            Object value = e.getValue();
+            List<String> signatures = new ArrayList<>();
+            if (value instanceof List) {
+                for (Object v : (List<?>) value) {
+                    signatures.add(String.valueOf(v));
+                }
+            } else if (value != null) {
+                signatures.add(String.valueOf(value));
+            }
+            events.put(String.valueOf(e.getKey()), signatures);
+        }
+        return events;
+    }
+
+    /**
+     * Finds the events whose signatures occur in a line.
+     * 
+     * @param line The log line.
+     * @return The indexes of the found events, or null if there are none.
+     */
+    BitSet match(CharSequence line) {
+        BitSet found = null;
+        int state = 0;
+        int n = line.length();
+        for (int i = 0; i < n; i++) {
+            state = automaton.next(state, line.charAt(i));
+            int[] signatures = automaton.found(state);
+            if (signatures != null) {
+                if (found == null) {
+                    found = new BitSet(names.length);
+                }
+                for (int signature : signatures) {
+                    found.set(signatureEvents[signature]);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Gets the name of an event, which becomes the signature of its marker entry.
+     * 
+     * @param event The index of the event.
+     * @return The event name.
+     */
+    String name(int event) {
+        return names[event];
+    }
+
+}
+
+/**
+ * Interface for extracting timestamps and comments from log lines.
+ */
+interface TimestampExtractor {
+    
+    /**
+     * Extracts the timestamp from a log line.
+     * 
+     * @param line The log line to extract the timestamp from.
+     * @return The extracted timestamp as a string.
+     */
+    String extractTimestamp(String line);
+
+    /**
+     * Extracts the timestamp from a log line that may not be a string yet.
+     * 
+     * @param line The log line to extract the timestamp from.
+     * @return The extracted timestamp as a string.
+     */
+    default String extractTimestamp(CharSequence line) {
+        return extractTimestamp(line == null ? null : line.toString());
+    }
+    
+    /**
+     * Parses a timestamp string into a Date object.
+     * 
+     * @param tstamp The timestamp string to parse.
+     * @return The parsed Date object.
+     */
+    Date parse(String tstamp);
+    
+    /**
+     * Gets the last extracted timestamp as a Date object.
+     * 
+     * @return The last extracted timestamp.
+     */
+    Date getTimestamp();
+    
+    /**
+     * Extracts a comment from a log line.
+     * 
+     * @param line The log line to extract the comment from.
+     * @return The extracted comment as a string.
+     */
+    String extractComment(String line);
+
+    /**
+     * Extracts a comment from a log line that may not be a string yet.
+     * 
+     * @param line The log line to extract the comment from.
+     * @return The extracted comment as a string.
+     */
+    default String extractComment(CharSequence line) {
+        return extractComment(line == null ? null : line.toString());
+    }
+    
+    /**
+     * Sets the expected date format and the number of characters to skip before the timestamp.
+     * 
+     * @param dformat The date format string.
+     * @param skipPrefixLength The number of characters to skip.
+     */
+    void setDateFormat(String dformat, int skipPrefixLength);
+
+}
+
+/**
+ * Extracts timestamps from log lines using a predefined format.
+ */
+class SimpleTimestampExtractor implements TimestampExtractor {
+
+    /**
+     * Start of the lines printed by `memoryInfo()`, see {@link #extractComment(String)}.
+     */
+    static final String MEMORY_INFO = "[memoryInfo] uri=";
+
+    /**
+     * Expected length of timestamp
+     */
+    private int timestampLength = 24;
+
+    /**
+     * Skip prefix before timestamp.
+     */
+    private int skipPrefixLength = 0;
+
+    Date date;
+    SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss,SSS");
+
+    @Override
+    public void setDateFormat(String dformat, int skipPrefixLength) {
+        if (dformat != null) {
+            df = new SimpleDateFormat(dformat);
+            timestampLength = dformat.length() + skipPrefixLength;
+            this.skipPrefixLength = skipPrefixLength;
+        }
+    }
+
+    @Override
+    public String extractTimestamp(String line) {
+        if (line == null || line.length() < timestampLength) {
+            return null;
+        }
+        try {
+            String tstamp = line.substring(skipPrefixLength, timestampLength);
+            date = df.parse(tstamp);
+            return tstamp;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Date getTimestamp() {
+        return date;
+    }
+    
+    /**
+     * Parses the given timestamp string into a Date object.
+     * 
+     * @param tstamp The timestamp string to parse.
+     * @return The parsed Date object, or a default date if parsing fails.
+     */
+    public Date parse(String tstamp) {
+        try {
+            return df.parse(tstamp);
+        } catch (ParseException e) {
+            return new Date(0);
+        }
+    }
+
+    /**
+     * Extracts a comment from a log line, if available.
+     *
+     * The following code can be included into servlet filter
+     * of the app to track which URL causes which exception.
+     *
+     * ```java
+        private void memoryInfo(HttpServletRequest request) {
+            long heapSize = Runtime.getRuntime().totalMemory();
+            long heapMaxSize = Runtime.getRuntime().maxMemory();
+            long heapFreeSize = Runtime.getRuntime().freeMemory();
+            String uri = request.getRequestURI();
+            log.info("[memoryInfo] uri=" + uri + ", free=" + heapFreeSize + ", total=" + heapSize + ", max=" + heapMaxSize);
+        }
+     * ```
+     */
+    @Override
+    public String extractComment(String line) {
+        return extractComment((CharSequence) line);
+    }
+
+    @Override
+    public String extractComment(CharSequence line) {
+        if (line == null) {
+            return null;
+        }
+        int k = CharSequences.indexOf(line, MEMORY_INFO, 0);
+        if (k == -1) {
+            return null;
+        }
+        k += MEMORY_INFO.length();
+        int n = CharSequences.indexOf(line, ',', k);
+        if (n == -1) {
+            return null;
+        }
+        return line.subSequence(k, n).toString();
+    }
+
+}
+
+/**
+ * Extracts timestamps with a fixed layout, such as `yyyy-MM-dd HH:mm:ss,SSS`.
+ * <p>
+ * The date format is compiled into a list of positions that must hold either a digit
+ * or a given separator, so a line without a timestamp is usually rejected after
+ * checking its first character. No exceptions are thrown and no {@link Date} is created
+ * while extracting. Only numeric fields are supported, see {@link #supports(String)}.
+ * </p>
+ * <p>
+ * After {@link #setDateFormat(String, int)} the extractor has no shared mutable state,
+ * so the same instance can be used by several threads.
+ * </p>
+ */
+class FixedLayoutTimestampExtractor extends SimpleTimestampExtractor {
+
+    /**
+     * Numeric pattern letters of {@link SimpleDateFormat}.
+     */
+    static final String NUMERIC_FIELDS = "yMdHkKhmsSD";
+
+    /**
+     * Character expected at each position, or 0 for a digit.
+     */
+    private char[] layout;
+
+    /**
+     * Pattern letter, start position and width of each field.
+     */
+    private char[] fieldLetters;
+    private int[] fieldStarts;
+    private int[] fieldWidths;
+
+    private int skipPrefixLength;
+    private int timestampLength;
+
+    private final ThreadLocal<String> lastTimestamp = new ThreadLocal<>();
+
+    FixedLayoutTimestampExtractor() {
+        setDateFormat("yyyy-MM-dd HH:mm:ss,SSS", 0);
+    }
+
+    /**
+     * Checks whether the date format has a fixed layout of numeric fields and separators.
+     * Text fields (like `MMM` or `EEE`), AM/PM markers, time zones and quoted text are not supported.
+     * 
+     * @param dformat The date format string.
+     * @return true if this extractor can handle the format.
+     */
+    static boolean supports(String dformat) {
+        if (dformat == null || dformat.isEmpty()) {
+            return false;
+        }
+        int n = dformat.length();
+        for (int i = 0; i < n; i++) {
+            char c = dformat.charAt(i);
+            if (c == '\'') {
+                return false;
+            }
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+                if (NUMERIC_FIELDS.indexOf(c) < 0) {
+                    return false;
+                }
+                int k = i;
+                while (k < n && dformat.charAt(k) == c) {
+                    k++;
+                }
+                if (c == 'M' && k - i > 2) {
+                    return false;
+                }
+                i = k - 1;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void setDateFormat(String dformat, int skipPrefixLength) {
+        if (dformat == null) {
+            return;
+        }
+        if (!supports(dformat)) {
+            throw new IllegalArgumentException("Not a fixed-layout date format: " + dformat);
+        }
+        int n = dformat.length();
+        layout = new char[n];
+        StringBuilder letters = new StringBuilder();
+        List<Integer> starts = new ArrayList<>();
+        List<Integer> widths = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            char c = dformat.charAt(i);
+            if (NUMERIC_FIELDS.indexOf(c) < 0) {
+                layout[i] = c;
+                continue;
+            }
+            int k = i;
+            while (k < n && dformat.charAt(k) == c) {
+                layout[k] = 0;
+                k++;
+            }
+            letters.append(c);
+            starts.add(i);
+            widths.add(k - i);
+            i = k - 1;
+        }
+        fieldLetters = letters.toString().toCharArray();
+        fieldStarts = starts.stream().mapToInt(Integer::intValue).toArray();
+        fieldWidths = widths.stream().mapToInt(Integer::intValue).toArray();
+        this.skipPrefixLength = skipPrefixLength;
+        timestampLength = n + skipPrefixLength;
+    }
+
+    @Override
+    public String extractTimestamp(String line) {
+        return extractTimestamp((CharSequence) line);
+    }
+
+    @Override
+    public String extractTimestamp(CharSequence line) {
+        if (line == null || line.length() < timestampLength) {
+            return null;
+        }
+        for (int i = 0; i < layout.length; i++) {
+            char c = line.charAt(skipPrefixLength + i);
+            char expected = layout[i];
+            if (expected == 0 ? c < '0' || c > '9' : c != expected) {
+                return null;
+            }
+        }
+        String tstamp = line.subSequence(skipPrefixLength, timestampLength).toString();
+        lastTimestamp.set(tstamp);
+        return tstamp;
+    }
+
+    /**
+     * Gets the last timestamp extracted by the current thread.
+     * 
+     * @return The last extracted timestamp, or null if there is none.
+     */
+    @Override
+    public Date getTimestamp() {
+        String tstamp = lastTimestamp.get();
+        return tstamp == null ? null : parse(tstamp);
+    }
+
+    /**
+     * Parses a timestamp with this layout into a Date object.
+     * Like a lenient {@link SimpleDateFormat}, out-of-range values roll over.
+     * 
+     * @param tstamp The timestamp string to parse.
+     * @return The parsed Date object, or a default date if the layout does not match.
+     */
+    @Override
+    public Date parse(String tstamp) {
+        if (tstamp == null || tstamp.length() != layout.length) {
+            return new Date(0);
+        }
+        int year = 1970;
+        int month = 1;
+        int day = 1;
+        int dayOfYear = 0;
+        int hour = 0;
+        int minute = 0;
+        int second = 0;
+        int millis = 0;
+        for (int f = 0; f < fieldLetters.length; f++) {
+            int value = 0;
+            for (int i = fieldStarts[f]; i < fieldStarts[f] + fieldWidths[f]; i++) {
+                char c = tstamp.charAt(i);
+                if (c < '0' || c > '9') {
+                    return new Date(0);
+                }
+                value = value * 10 + (c - '0');
+            }
+            switch (fieldLetters[f]) {
+                case 'y' -> year = fieldWidths[f] <= 2 ? twoDigitYear(value) : value;
+                case 'M' -> month = value;
+                case 'd' -> day = value;
+                case 'D' -> dayOfYear = value;
+                case 'H', 'K' -> hour = value;
+                case 'k' -> hour = value % 24;
+                case 'h' -> hour = value % 12;
+                case 'm' -> minute = value;
+                case 's' -> second = value;
+                case 'S' -> millis = value;
+                default -> { }
+            }
+        }
+        LocalDateTime t = LocalDateTime.of(year, 1, 1, 0, 0);
+        t = dayOfYear > 0 ? t.plusDays(dayOfYear - 1) : t.plusMonths(month - 1).plusDays(day - 1);
+        t = t.plusHours(hour).plusMinutes(minute).plusSeconds(second).plus(millis, ChronoUnit.MILLIS);
+        return Date.from(t.atZone(ZoneId.systemDefault()).toInstant());
+    }
+
+    /**
+     * Resolves a two-digit year to the century that begins 80 years ago,
+     * like {@link SimpleDateFormat} does.
+     */
+    private static int twoDigitYear(int yy) {
+        int start = LocalDate.now().getYear() - 80;
+        int year = start / 100 * 100 + yy;
+        return year < start ? year + 100 : year;
+    }
+
+}
+
+/**
+ * Position up to which a log file has been processed, saved in a sidecar file
+ * next to the log, so that the next run continues where the previous one stopped.
+ * <p>
+ * Besides the byte offset, the checkpoint keeps the line number, the last timestamp
+ * and the last comment, and identifies the file by its key (inode) and a hash
+ * of its first bytes to detect log rotation.
+ * </p>
+ */
+class Checkpoint {
+
+    /**
+     * Number of leading bytes used to recognize the same file.
+     */
+    static final int HEAD_LENGTH = 1024;
+
+    long offset;
+    int lno;
+    String lastTime;
+    String lastComment;
+
+    String fileKey;
+    int headLength;
+    long headHash;
+
+    /**
+     * @return  path to the checkpoint file of the log
+     */
+    static Path sidecar(Path logPath) {
+        return Path.of(logPath + ".checkpoint");
+    }
+
+    /**
+     * Loads a checkpoint.
+     * 
+     * @param file The checkpoint file.
+     * @return The checkpoint, or null if the file does not exist.
+     * @throws IOException If the file cannot be read.
+     */
+    static Checkpoint load(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        Properties props = new Properties();
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            props.load(in);
+        }
+        Checkpoint cp = new Checkpoint();
+        cp.offset = Long.parseLong(props.getProperty("offset", "0"));
+        cp.lno = Integer.parseInt(props.getProperty("lno", "0"));
+        cp.lastTime = props.getProperty("lastTime");
+        cp.lastComment = props.getProperty("lastComment");
+        cp.fileKey = props.getProperty("fileKey");
+        cp.headLength = Integer.parseInt(props.getProperty("headLength", "0"));
+        cp.headHash = Long.parseLong(props.getProperty("headHash", "0"));
+        return cp;
+    }
+
+    /**
+     * Saves this checkpoint.
+     * 
+     * @param file The checkpoint file.
+     * @throws IOException If the file cannot be written.
+     */
+    void save(Path file) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("offset", Long.toString(offset));
+        props.setProperty("lno", Integer.toString(lno));
+        if (lastTime != null) {
+            props.setProperty("lastTime", lastTime);
+        }
+        if (lastComment != null) {
+            props.setProperty("lastComment", lastComment);
+        }
+        if (fileKey != null) {
+            props.setProperty("fileKey", fileKey);
+        }
+        props.setProperty("headLength", Integer.toString(headLength));
+        props.setProperty("headHash", Long.toString(headHash));
+        try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            props.store(w, "exc checkpoint");
+        }
+    }
+
+    /**
+     * Checks that the log is still the file this checkpoint was taken from,
+     * and that it has not been truncated.
+     * 
+     * @param logPath The log file.
+     * @param channel The open log file.
+     * @return false if the log has been rotated or truncated.
+     * @throws IOException If the file cannot be read.
+     */
+    boolean matches(Path logPath, FileChannel channel) throws IOException {
+        if (channel.size() < offset) {
+            return false;
+        }
+        String key = fileKey(logPath);
+        if (fileKey != null && key != null && !fileKey.equals(key)) {
+            return false;
+        }
+        return headHash == headHash(channel, headLength);
+    }
+
+    /**
+     * Remembers the identity of the log file.
+     * 
+     * @param logPath The log file.
+     * @param channel The open log file.
+     * @throws IOException If the file cannot be read.
+     */
+    void updateFile(Path logPath, FileChannel channel) throws IOException {
+        fileKey = fileKey(logPath);
+        headLength = (int) Math.min(HEAD_LENGTH, offset);
+        headHash = headHash(channel, headLength);
+    }
+
+    static String fileKey(Path logPath) throws IOException {
+        Object key = Files.readAttributes(logPath, BasicFileAttributes.class).fileKey();
+        return key == null ? null : key.toString();
+    }
+
+    static long headHash(FileChannel channel, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining() && channel.read(buf, buf.position()) > 0) {
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buf.flip());
+        return crc.getValue();
+    }
+
+    /**
+     * Finds the end of the last complete line, so that a line that is still being written
+     * is left for the next run. A `\r` at the very end may still be followed by `\n`,
+     * so it does not complete a line yet.
+     * 
+     * @param channel The open log file.
+     * @param from The position to start from.
+     * @return The position after the last line terminator, or `from` if there is none.
+     * @throws IOException If the file cannot be read.
+     */
+    static long completeLinesEnd(FileChannel channel, long from) throws IOException {
+        long size = channel.size();
+        ByteBuffer buf = ByteBuffer.allocate(8192);
+        long pos = size;
+        while (pos > from) {
+            int n = (int) Math.min(buf.capacity(), pos - from);
+            pos -= n;
+            buf.clear().limit(n);
+            while (buf.hasRemaining() && channel.read(buf, pos + buf.position()) > 0) {
+            }
+            for (int i = buf.position() - 1; i >= 0; i--) {
+                byte b = buf.get(i);
+                if (b == '\n' || (b == '\r' && pos + i < size - 1)) {
+                    return pos + i + 1;
+                }
+            }
+        }
+        return from;
+    }
+
+}
+
+/**
+ * Time index of a log file, saved next to the log in `<log>.idx`.
+ * <p>
+ * For each minute, the index keeps a {@link Checkpoint} at the first line with a timestamp
+ * in that minute: its byte offset, the number of lines before it, and the timestamp
+ * and comment carried over from the previous lines. A time range can then be scanned
+ * from the checkpoint before its start instead of from the beginning of the log.
+ * </p>
+ * <p>
+ * The index covers the log up to `tail`, which also identifies the file.
+ * It is reused as long as the log is unchanged, and extended when lines are appended.
+ * </p>
+ */
+class TimeIndex {
+
+    static final String MAGIC = "exc-index-1";
+
+    /**
+     * Date format and skip prefix the index was built with.
+     */
+    String format;
+
+    long mtime;
+
+    /**
+     * End of the indexed part of the log, with the state to continue from.
+     */
+    Checkpoint tail = new Checkpoint();
+    long lastMinute = Long.MIN_VALUE;
+
+    List<Long> minutes = new ArrayList<>();
+    List<Checkpoint> points = new ArrayList<>();
+
+    /**
+     * @return  path to the index file of the log
+     */
+    static Path sidecar(Path logPath) {
+        return Path.of(logPath + ".idx");
+    }
+
+    /**
+     * Loads the index of the log, then builds or extends it if needed and saves it.
+     * 
+     * @param logPath The log file.
+     * @param charset The encoding of the log; must be ASCII-compatible.
+     * @param tse The TimestampExtractor to use for extracting timestamps.
+     * @param format The date format and skip prefix, the index is rebuilt when they change.
+     * @return The up-to-date index.
+     * @throws IOException If the log or the index cannot be read or written.
+     */
+    static TimeIndex update(Path logPath, Charset charset, TimestampExtractor tse, String format)
+            throws IOException {
+        Path file = sidecar(logPath);
+        long mtime = Files.getLastModifiedTime(logPath).toMillis();
+        try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.READ)) {
+            TimeIndex index = load(file);
+            if (index != null && index.format.equals(format) && index.tail.matches(logPath, channel)) {
+                if (index.mtime == mtime || channel.size() == index.tail.offset) {
+                    return index;
+                }
+                out.println("Extending index: " + file);
+            } else {
+                out.println("Building index: " + file);
+                index = new TimeIndex();
+                index.format = format;
+            }
+            index.extend(logPath, channel, charset, tse);
+            index.mtime = mtime;
+            index.save(file);
+            return index;
+        }
+    }
+
+    /**
+     * Indexes the complete lines after `tail`.
+     */
+    void extend(Path logPath, FileChannel channel, Charset charset, TimestampExtractor tse)
+            throws IOException {
+        long end = Checkpoint.completeLinesEnd(channel, tail.offset);
+        int lno = tail.lno;
+        String lastTime = tail.lastTime;
+        String lastComment = tail.lastComment;
+        try (MappedLineReader in = new MappedLineReader(channel, false, tail.offset, end,
+                                                        charset, MappedLineReader.WINDOW_SIZE)) {
+            long offset = tail.offset;
+            ByteLine bytes = new ByteLine();
+            while (in.readLine(bytes)) {
+                CharSequence line = bytes.isAscii() ? bytes : in.decode(bytes);
+                String tstamp = tse.extractTimestamp(line);
+                if (tstamp != null) {
+                    long minute = Math.floorDiv(tse.parse(tstamp).getTime(), 60_000L);
+                    if (minute > lastMinute) {
+                        Checkpoint cp = new Checkpoint();
+                        cp.offset = offset;
+                        cp.lno = lno;
+                        cp.lastTime = lastTime;
+                        cp.lastComment = lastComment;
+                        minutes.add(minute);
+                        points.add(cp);
+                        lastMinute = minute;
+                    }
+                    lastTime = tstamp;
+                }
+                String comment = tse.extractComment(line);
+                if (comment != null) {
+                    lastComment = comment;
+                }
+                lno++;
+                offset = in.position();
+            }
+        }
+        tail.offset = end;
+        tail.lno = lno;
+        tail.lastTime = lastTime;
+        tail.lastComment = lastComment;
+        tail.updateFile(logPath, channel);
+    }
+
+    /**
+     * Finds where to start scanning for a time range.
+     * 
+     * @param from Start of the time range, in epoch millis.
+     * @return The checkpoint of the last indexed minute not after `from`, or the beginning of the log.
+     */
+    Checkpoint findStart(long from) {
+        int k = search(Math.floorDiv(from, 60_000L));
+        // k is the first minute after `from`
+        return k == 0 ? new Checkpoint() : points.get(k - 1);
+    }
+
+    /**
+     * Finds the last indexed line at or before an offset.
+     * 
+     * @param offset A position in the log.
+     * @return The checkpoint of that line, or the beginning of the log.
+     */
+    Checkpoint findBefore(long offset) {
+        int lo = 0;
+        int hi = points.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (points.get(mid).offset <= offset) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo == 0 ? new Checkpoint() : points.get(lo - 1);
+    }
+
+    /**
+     * Finds where to stop scanning for a time range, one minute after its end
+     * to allow for slightly unordered timestamps.
+     * 
+     * @param to End of the time range, in epoch millis.
+     * @return The offset of the first line after the range, or the end of the indexed log.
+     */
+    long findEnd(long to) {
+        long minute = Math.floorDiv(to, 60_000L);
+        int k = search(minute == Long.MAX_VALUE / 60_000L ? minute : minute + 1);
+        return k == points.size() ? tail.offset : points.get(k).offset;
+    }
+
+    /**
+     * @return  index of the first entry with a minute after the given one
+     */
+    private int search(long minute) {
+        int lo = 0;
+        int hi = minutes.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (minutes.get(mid) <= minute) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Loads an index.
+     * 
+     * @param file The index file.
+     * @return The index, or null if the file does not exist or has another format.
+     * @throws IOException If the file cannot be read.
+     */
+    static TimeIndex load(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (!MAGIC.equals(in.readUTF())) {
+                return null;
+            }
+            TimeIndex index = new TimeIndex();
+            index.format = in.readUTF();
+            index.mtime = in.readLong();
+            index.lastMinute = in.readLong();
+            index.tail = readCheckpoint(in);
+            index.tail.fileKey = readString(in);
+            index.tail.headLength = in.readInt();
+            index.tail.headHash = in.readLong();
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                index.minutes.add(in.readLong());
+                index.points.add(readCheckpoint(in));
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Saves this index.
+     * 
+     * @param file The index file.
+     * @throws IOException If the file cannot be written.
+     */
+    void save(Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeUTF(MAGIC);
+            out.writeUTF(format);
+            out.writeLong(mtime);
+            out.writeLong(lastMinute);
+            writeCheckpoint(out, tail);
+            writeString(out, tail.fileKey);
+            out.writeInt(tail.headLength);
+            out.writeLong(tail.headHash);
+            out.writeInt(points.size());
+            for (int i = 0; i < points.size(); i++) {
+                out.writeLong(minutes.get(i));
+                writeCheckpoint(out, points.get(i));
+            }
+        }
+    }
+
+    static Checkpoint readCheckpoint(DataInputStream in) throws IOException {
+        Checkpoint cp = new Checkpoint();
+        cp.offset = in.readLong();
+        cp.lno = in.readInt();
+        cp.lastTime = readString(in);
+        cp.lastComment = readString(in);
+        return cp;
+    }
+
+    static void writeCheckpoint(DataOutputStream out, Checkpoint cp) throws IOException {
+        out.writeLong(cp.offset);
+        out.writeInt(cp.lno);
+        writeString(out, cp.lastTime);
+        writeString(out, cp.lastComment);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+}
+
+/**
+ * Source of log lines, read one at a time.
+ */
+interface LineSource extends Closeable {
+
+    /**
+     * Reads the next line, without the line terminator.
+     * 
+     * @return The next line, or null at the end of the input.
+     * @throws IOException If an I/O error occurs.
+     */
+    String readLine() throws IOException;
+
+    /**
+     * @return  the number of bytes read so far, after decompression, or -1 if not known
+     */
+    default long bytesRead() {
+        return -1;
+    }
+
+    @Override
+    default void close() throws IOException {
+    }
+
+    /**
+     * Opens a log file as a line source.
+     * <p>
+     * Files in an ASCII-compatible encoding are read through a mapped {@link FileChannel},
+     * other encodings and gzipped files (`*.gz`) through a {@link BufferedReader}.
+     * </p>
+     * 
+     * @param path The log file.
+     * @param charset The encoding of the log file.
+     * @return The line source; the caller is responsible for closing it.
+     * @throws IOException If the file cannot be opened.
+     */
+    static LineSource open(Path path, Charset charset) throws IOException {
+        if (MappedLineReader.isAsciiCompatible(charset) && !isGzip(path)) {
+            return new MappedLineReader(path, charset);
+        }
+        InputStream in = Files.newInputStream(path);
+        if (isGzip(path)) {
+            in = new GZIPInputStream(in, 1 << 16);
+        }
+        CountingInputStream counted = new CountingInputStream(in);
+        return of(new BufferedReader(new InputStreamReader(counted, charset.newDecoder()), 1 << 16), counted);
+    }
+
+    /**
+     * @return  true if the file is gzipped, judging by its name
+     */
+    static boolean isGzip(Path path) {
+        return path.getFileName().toString().endsWith(".gz");
+    }
+
+    /**
+     * Creates a line source over the given reader.
+     * 
+     * @param in The reader; it is closed when the line source is closed.
+     * @param counted The stream below the reader, which counts the bytes it delivers.
+     * @return The line source.
+     */
+    static LineSource of(BufferedReader in, CountingInputStream counted) {
+        return new LineSource() {
+            @Override
+            public String readLine() throws IOException {
+                return in.readLine();
+            }
+
+            @Override
+            public long bytesRead() {
+                return counted.count;
+            }
+
+            @Override
+            public void close() throws IOException {
+                in.close();
+            }
+        };
+    }
+
+    /**
+     * Counts the bytes read from a stream, such as the decompressed bytes of a gzipped log.
+     * The reader above it reads ahead by a buffer, which does not matter for progress.
+     */
+    class CountingInputStream extends FilterInputStream {
+
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+    }
+
+}
+
+/**
+ * Reads lines from a file through fixed-size windows mapped from a {@link FileChannel}.
+ * <p>
+ * Memory usage does not depend on the file size: only the current window is mapped,
+ * and only a line that crosses a window boundary is copied to the heap.
+ * Line terminators are the same as for {@link BufferedReader#readLine()}:
+ * `\n`, `\r` or `\r\n`. The charset must be ASCII-compatible,
+ * so that these bytes never occur inside a multi-byte character.
+ * </p>
+ */
+class MappedLineReader implements LineSource {
+
+    /**
+     * Size of a mapped window.
+     */
+    static final int WINDOW_SIZE = 64 << 20;
+
+    private final FileChannel channel;
+    private final boolean ownsChannel;
+    private final long start;
+    private final long end;
+    private final int windowSize;
+    private final CharsetDecoder decoder;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    /**
+     * Start of the line that crosses a window boundary.
+     */
+    private byte[] pending = new byte[256];
+    private int pendingLength;
+
+    private CharBuffer chars = CharBuffer.allocate(256);
+
+    private final ByteLine scratch = new ByteLine();
+
+    /**
+     * Set after `\r`, so that a following `\n` is skipped.
+     */
+    private boolean skipLF;
+
+    /**
+     * Opens the whole file for reading.
+     * 
+     * @param path The file to read.
+     * @param charset The encoding of the file.
+     * @throws IOException If the file cannot be opened.
+     */
+    MappedLineReader(Path path, Charset charset) throws IOException {
+        this(FileChannel.open(path, StandardOpenOption.READ), true, 0, -1, charset, WINDOW_SIZE);
+    }
+
+    /**
+     * Reads the region `[start, end)` of an open channel.
+     * 
+     * @param channel The channel to read.
+     * @param ownsChannel Whether the channel is closed together with this reader.
+     * @param start The position of the first byte to read.
+     * @param end The position after the last byte to read, or -1 for the channel size.
+     * @param charset The encoding of the file.
+     * @param windowSize The size of a mapped window.
+     * @throws IOException If the channel size cannot be read.
+     */
+    MappedLineReader(FileChannel channel, boolean ownsChannel, long start, long end,
+                     Charset charset, int windowSize) throws IOException {
+        this.channel = channel;
+        this.ownsChannel = ownsChannel;
+        this.start = start;
+        this.end = end < 0 ? channel.size() : end;
+        this.windowStart = start;
+        this.windowSize = windowSize;
+        this.decoder = charset.newDecoder();
+    }
+
+    /**
+     * Checks whether all ASCII characters are encoded as the same single bytes.
+     * Then `\n` and `\r` never occur inside a multi-byte character,
+     * and a line without bytes above 127 is plain ASCII that needs no decoding.
+     * 
+     * @param charset The charset to check.
+     * @return true if lines can be split and read on raw bytes.
+     */
+    static boolean isAsciiCompatible(Charset charset) {
+        if (!charset.canEncode()) {
+            return false;
         }
-
-        private static final Pattern exceptionPattern = Pattern
-                .compile("(([a-z])+\\.)+[A-Z][a-zA-Z]*(Exception|Error)");
-                
-        /**
-         * Extracts the exception signature from a log line.
-         * 
-         * @param line The log line to process.
-         * @return The extracted exception signature, or null if none found.
-         */
-        private String extractException(String line) {
-            StringTokenizer st = new StringTokenizer(line);
-            while (st.hasMoreTokens()) {
-                String token = trimSpecial(st.nextToken());
-                if (exceptionPattern.matcher(token).matches())
-                    return token;
+        char[] ascii = new char[128];
+        for (int i = 0; i < ascii.length; i++) {
+            ascii[i] = (char) i;
+        }
+        try {
+            ByteBuffer b = charset.newEncoder().encode(CharBuffer.wrap(ascii));
+            if (b.remaining() != ascii.length) {
+                return false;
             }
-            return null;
+            for (int i = 0; i < ascii.length; i++) {
+                if (b.get(i) != i) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (CharacterCodingException e) {
+            return false;
         }
+    }
 
-        /**
-         * Trims special characters from the given token, keeping only letters.
-         * 
-         * @param token The token to trim.
-         * @return The trimmed token.
-         */
-        String trimSpecial(String token) {
-            int k1 = 0;
-            int k2 = token.length() - 1;
-            for (; k1 <= k2; k1++) {
-                if (Character.isLetter(token.charAt(k1)))
-                    break;
+    @Override
+    public String readLine() throws IOException {
+        return readLine(scratch) ? decode(scratch) : null;
+    }
+
+    /**
+     * Reads the next line without decoding it.
+     * The view points into the mapped window, or into a heap copy for a line
+     * that crosses a window boundary, and is only valid until the next call.
+     * 
+     * @param line The view to point at the line.
+     * @return false at the end of the region.
+     * @throws IOException If the file cannot be read.
+     */
+    boolean readLine(ByteLine line) throws IOException {
+        while (true) {
+            if ((window == null || !window.hasRemaining()) && !nextWindow()) {
+                if (pendingLength == 0) {
+                    return false;
+                }
+                line.set(ByteBuffer.wrap(pending), 0, pendingLength, isAscii(pending, 0, pendingLength));
+                pendingLength = 0;
+                return true;
+            }
+            int start = window.position();
+            if (skipLF) {
+                skipLF = false;
+                if (window.get(start) == '\n') {
+                    window.position(start + 1);
+                    continue;
+                }
             }
-            for (; k1 <= k2; k2--) {
-                if (Character.isLetter(token.charAt(k2)))
+            int limit = window.limit();
+            int k = start;
+            int bits = 0;
+            while (k < limit) {
+                byte b = window.get(k);
+                if (b == '\n' || b == '\r') {
                     break;
+                }
+                bits |= b;
+                k++;
+            }
+            if (k == limit) {
+                // Line continues in the next window
+                appendPending(start, limit);
+                window.position(limit);
+                continue;
+            }
+            int next = k + 1;
+            if (window.get(k) == '\r') {
+                // Consume \r\n now if possible, so that position() is exact
+                if (next < limit) {
+                    if (window.get(next) == '\n') {
+                        next++;
+                    }
+                } else {
+                    skipLF = true;
+                }
+            }
+            window.position(next);
+            if (pendingLength == 0) {
+                line.set(window, start, k, bits >= 0);
+                return true;
             }
-            return token.substring(k1, k2 + 1);
+            appendPending(start, k);
+            line.set(ByteBuffer.wrap(pending), 0, pendingLength, isAscii(pending, 0, pendingLength));
+            pendingLength = 0;
+            return true;
         }
+    }
 
+    private static boolean isAscii(byte[] bytes, int from, int to) {
+        int bits = 0;
+        for (int i = from; i < to; i++) {
+            bits |= bytes[i];
+        }
+        return bits >= 0;
     }
-    
+
     /**
-     * Generates an HTML table from a list of exceptions in YAML format.
+     * Counts the lines in a region without decoding them.
+     * <p>
+     * The bytes are read eight at a time, and the `\n` bytes of a word are counted
+     * with bit operations. Only a word with a `\r` is looked at byte by byte.
+     * </p>
+     * 
+     * @param channel The file to read.
+     * @param from The start of the region, at the start of a line.
+     * @param to The end of the region.
+     * @return The number of line terminators in the region.
+     * @throws IOException If the region cannot be mapped.
      */
-    class HtmlTable {
-    
-        // SnakeYAML: 
-        //   Docs:      https://bitbucket.org/snakeyaml/snakeyaml/wiki/Documentation
-        //   GitHub:    https://github.com/snakeyaml/snakeyaml
-        //   Tutorial:  https://www.baeldung.com/java-snake-yaml
-    
-        Yaml yaml = new Yaml();
-        
-        List<Map<String, Object>> list;    
-        ArrayList<String> keys;
-        String logFile;
-        
-        /**
-         * Initializes an HtmlTable instance with the specified log file.
-         * 
-         * @param logFile The log file to read YAML data from.
-         * @throws Exception If an error occurs while reading the YAML file.
-         */    
-        HtmlTable(String logFile) throws Exception {
-            this.logFile = logFile;
-            Path yamlPath = Path.of(logFile + ".yml");
-            list = yaml.load(Files.newInputStream(yamlPath));
-            //System.out.println("List: " + list);
-            //assert list.size() < 0;
-        }
-        
-        /**
-         * Creates an HTML output file from the YAML data.
-         * 
-         * @throws FileNotFoundException If the output file cannot be created.
-         */        
-        void createOutputHtml() throws FileNotFoundException {
-            createOutputHtml(logFile + ".html", list);
-        }
-        
-        /**
-         * Creates an HTML output file from the specified list of maps.
-         * 
-         * @param outFile The name of the output HTML file.
-         * @param list The list of data to include in the HTML table.
-         * @throws FileNotFoundException If the output file cannot be created.
-         */                
-        void createOutputHtml(String outFile, List<Map<String, Object>> list) throws FileNotFoundException {
-            Map<String, Object> map = list.get(0);
-            keys = new ArrayList<>(map.keySet());
-    
-            PrintWriter f = new PrintWriter(new FileOutputStream(outFile));
-            String bootstrapCDN = "https://cdn.jsdelivr.net/npm/bootstrap@5.2.3";
-            f.printf("""
-                <!doctype html>
-                <html lang="en">
-                <head>
-                  <meta charset="utf-8">
-                  <meta name="viewport" content="width=device-width, initial-scale=1">
-                  <link href="%s/dist/css/bootstrap.min.css" rel="stylesheet">
-                </head>
-                <body>
-                  <div class="container">
-                  %s
-                  </div>
-                  <script src="%s/dist/js/bootstrap.bundle.min.js"></script>
-                </body>
-                </html>
-                """, 
-                bootstrapCDN, createContents(), bootstrapCDN);
-            f.close();
-            out.println("File created: " + outFile);
-        }
-        
-        /**
-         * Creates the contents of the HTML table from the extracted exception data.
-         * 
-         * @return A string containing the HTML table structure.
-         */    
-        String createContents() {
-            return String.format("""
-                <table class="table">
-                <thead>
-                  <tr>
-                    %s
-                  </tr>
-                </thead>            
-                <tbody>
-                  %s
-                </tbody>
-                </table>
-                """,
-                createTableHeader(),
-                createTableBody());
-        }
-        
-        /**
-         * Creates the header row of the HTML table based on the keys of the data.
-         * 
-         * @return A string containing the HTML for the table header.
-         */    
-        String createTableHeader() {
-            StringBuilder sb = new StringBuilder();
-            for (String key: keys) {
-                sb.append("<th scope=\"col\">" + key + "</th>\n");
+    static int countLines(FileChannel channel, long from, long to) throws IOException {
+        int count = 0;
+        byte prev = 0;
+        for (long pos = from; pos < to; pos += WINDOW_SIZE) {
+            int size = (int) Math.min(WINDOW_SIZE, to - pos);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, pos, size);
+            int i = 0;
+            for (; i + 8 <= size; i += 8) {
+                long word = window.getLong(i);
+                if (prev != '\r' && matches(word, CR) == 0) {
+                    count += Long.bitCount(matches(word, LF));
+                    prev = window.get(i + 7);
+                    continue;
+                }
+                for (int k = i; k < i + 8; k++) {
+                    byte b = window.get(k);
+                    if (b == '\r' || (b == '\n' && prev != '\r')) {
+                        count++;
+                    }
+                    prev = b;
+                }
             }
-            return sb.toString();        
-        }
-        
-        /**
-         * Creates the body rows of the HTML table from the list of exceptions.
-         * 
-         * @return A string containing the HTML for the table body.
-         */    
-        String createTableBody() {
-            StringBuilder sb = new StringBuilder();
-            for (Map<String, Object> em: list) {
-                sb.append("<tr>\n");
-                for (String key: keys) {
-                    Object value = em.get(key);
-                    sb.append("<td>" + (value == null? "": value) + "</td>\n");
+            for (; i < size; i++) {
+                byte b = window.get(i);
+                if (b == '\r' || (b == '\n' && prev != '\r')) {
+                    count++;
                 }
-                sb.append("</tr>\n");
+                prev = b;
             }
-            return sb.toString();      
         }
-    
+        return count;
     }
-    
 
-}
+    private static final long LF = 0x0A0A0A0A0A0A0A0AL;
 
-// ------ Outer Classes 
+    private static final long CR = 0x0D0D0D0D0D0D0D0DL;
+
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
 
-/**
- * Interface for extracting timestamps and comments from log lines.
- */
-interface TimestampExtractor {
-    
     /**
-     * Extracts the timestamp from a log line.
-     * 
-     * @param line The log line to extract the timestamp from.
-     * @return The extracted timestamp as a string.
+     * @return  the high bit of each byte of `word` that equals the byte repeated in `pattern`
      */
-    String extractTimestamp(String line);
-    
+    private static long matches(long word, long pattern) {
+        long x = word ^ pattern;
+        return ~(((x & LOW_BITS) + LOW_BITS) | x | LOW_BITS);
+    }
+
+    @Override
+    public long bytesRead() {
+        return (window == null ? windowStart : windowStart + window.position()) - start;
+    }
+
     /**
-     * Parses a timestamp string into a Date object.
+     * Gets the file position of the next line.
      * 
-     * @param tstamp The timestamp string to parse.
-     * @return The parsed Date object.
+     * @return The position after the last line read.
+     * @throws IOException If the file cannot be read.
      */
-    Date parse(String tstamp);
-    
+    long position() throws IOException {
+        long pos = window == null ? windowStart : windowStart + window.position();
+        if (skipLF && pos < end) {
+            // The last line ended with \r at the end of a window
+            ByteBuffer b = ByteBuffer.allocate(1);
+            if (channel.read(b, pos) == 1 && b.get(0) == '\n') {
+                pos++;
+            }
+        }
+        return pos;
+    }
+
     /**
-     * Gets the last extracted timestamp as a Date object.
+     * Maps the next window of the file.
      * 
-     * @return The last extracted timestamp.
+     * @return false at the end of the region.
+     * @throws IOException If the region cannot be mapped.
      */
-    Date getTimestamp();
-    
+    private boolean nextWindow() throws IOException {
+        if (window != null) {
+            windowStart += window.limit();
+            window = null;
+        }
+        if (windowStart >= end) {
+            return false;
+        }
+        int size = (int) Math.min(windowSize, end - windowStart);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, size);
+        return true;
+    }
+
+    private void appendPending(int from, int to) {
+        int n = to - from;
+        if (pendingLength + n > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + n));
+        }
+        window.get(from, pending, pendingLength, n);
+        pendingLength += n;
+    }
+
     /**
-     * Extracts a comment from a log line.
+     * Decodes a line returned by {@link #readLine(ByteLine)}.
      * 
-     * @param line The log line to extract the comment from.
-     * @return The extracted comment as a string.
+     * @param line The undecoded line.
+     * @return The line as a string.
+     * @throws CharacterCodingException If the line is not valid in the charset.
      */
-    String extractComment(String line);
-    
+    String decode(ByteLine line) throws CharacterCodingException {
+        if (line.isAscii()) {
+            return line.toString();
+        }
+        return decode(line.bytes().slice(line.start(), line.length()));
+    }
+
     /**
-     * Sets the expected date format and the number of characters to skip before the timestamp.
-     * 
-     * @param dformat The date format string.
-     * @param skipPrefixLength The number of characters to skip.
+     * Decodes a line, reusing the same char buffer for all lines.
      */
-    void setDateFormat(String dformat, int skipPrefixLength);
+    private String decode(ByteBuffer bytes) throws CharacterCodingException {
+        int n = (int) (bytes.remaining() * (double) decoder.maxCharsPerByte()) + 1;
+        if (chars.capacity() < n) {
+            chars = CharBuffer.allocate(Math.max(chars.capacity() * 2, n));
+        }
+        chars.clear();
+        decoder.reset();
+        CoderResult result = decoder.decode(bytes, chars, true);
+        if (result.isUnderflow()) {
+            result = decoder.flush(chars);
+        }
+        if (!result.isUnderflow()) {
+            result.throwException();
+        }
+        return chars.flip().toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        if (ownsChannel) {
+            channel.close();
+        }
+    }
 
 }
 
 /**
- * Extracts timestamps from log lines using a predefined format.
+ * A reusable view of a line of bytes as characters.
+ * <p>
+ * Only ASCII lines are read through this view, where each byte is one character.
+ * Nothing is copied until a part of the line is kept with {@link #subSequence(int, int)}
+ * or {@link #toString()}.
+ * </p>
  */
-class SimpleTimestampExtractor implements TimestampExtractor {
+class ByteLine implements CharSequence {
 
-    /**
-     * Expected length of timestamp
-     */
-    private int timestampLength = 24;
+    private ByteBuffer bytes;
+    private int start;
+    private int length;
+    private boolean ascii;
+
+    void set(ByteBuffer bytes, int start, int end, boolean ascii) {
+        this.bytes = bytes;
+        this.start = start;
+        this.length = end - start;
+        this.ascii = ascii;
+    }
+
+    ByteBuffer bytes() {
+        return bytes;
+    }
+
+    int start() {
+        return start;
+    }
 
     /**
-     * Skip prefix before timestamp.
+     * Checks whether the line has no bytes above 127.
+     * 
+     * @return true if every byte is an ASCII character.
      */
-    private int skipPrefixLength = 0;
+    boolean isAscii() {
+        return ascii;
+    }
 
-    Date date;
-    SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss,SSS");
+    @Override
+    public int length() {
+        return length;
+    }
 
     @Override
-    public void setDateFormat(String dformat, int skipPrefixLength) {
-        if (dformat != null) {
-            df = new SimpleDateFormat(dformat);
-            timestampLength = dformat.length() + skipPrefixLength;
-            this.skipPrefixLength = skipPrefixLength;
-        }
+    public char charAt(int index) {
+        return (char) (bytes.get(start + index) & 0xff);
     }
 
     @Override
-    public String extractTimestamp(String line) {
-        if (line == null || line.length() < timestampLength) {
-            return null;
-        }
-        try {
-            String tstamp = line.substring(skipPrefixLength, timestampLength);
-            date = df.parse(tstamp);
-            return tstamp;
-        } catch (Exception e) {
-            return null;
-        }
+    public CharSequence subSequence(int from, int to) {
+        byte[] b = new byte[to - from];
+        bytes.get(start + from, b);
+        return new String(b, StandardCharsets.ISO_8859_1);
     }
 
     @Override
-    public Date getTimestamp() {
-        return date;
+    public String toString() {
+        return subSequence(0, length).toString();
     }
-    
-    /**
-     * Parses the given timestamp string into a Date object.
-     * 
-     * @param tstamp The timestamp string to parse.
-     * @return The parsed Date object, or a default date if parsing fails.
-     */
-    public Date parse(String tstamp) {
-        try {
-            return df.parse(tstamp);
-        } catch (ParseException e) {
-            return new Date(0);
+
+}
+
+/**
+ * Searches in a {@link CharSequence} like the methods of {@link String}.
+ */
+class CharSequences {
+
+    private CharSequences() {
+    }
+
+    static int indexOf(CharSequence s, char c, int from) {
+        if (s instanceof String) {
+            return ((String) s).indexOf(c, from);
         }
+        int n = s.length();
+        for (int i = Math.max(from, 0); i < n; i++) {
+            if (s.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
     }
 
-    /**
-     * Extracts a comment from a log line, if available.
-     *
-     * The following code can be included into servlet filter
-     * of the app to track which URL causes which exception.
-     *
-     * ```java
-        private void memoryInfo(HttpServletRequest request) {
-            long heapSize = Runtime.getRuntime().totalMemory();
-            long heapMaxSize = Runtime.getRuntime().maxMemory();
-            long heapFreeSize = Runtime.getRuntime().freeMemory();
-            String uri = request.getRequestURI();
-            log.info("[memoryInfo] uri=" + uri + ", free=" + heapFreeSize + ", total=" + heapSize + ", max=" + heapMaxSize);
+    static int indexOf(CharSequence s, String str, int from) {
+        if (s instanceof String) {
+            return ((String) s).indexOf(str, from);
         }
-     * ```
-     */
-    @Override
-    public String extractComment(String line) {
-        if (line == null) {
-            return null;
+        if (str.isEmpty()) {
+            return Math.min(Math.max(from, 0), s.length());
         }
-        final String FLAG = "[memoryInfo] uri=";
-        int k = line.indexOf(FLAG);
-        if (k == -1) {
-            return null;
+        char first = str.charAt(0);
+        int last = s.length() - str.length();
+        for (int i = Math.max(from, 0); i <= last; i++) {
+            if (s.charAt(i) == first && startsWith(s, str, i)) {
+                return i;
+            }
         }
-        k += FLAG.length();
-        int n = line.indexOf(",", k);
-        if (n == -1) {
-            return null;
+        return -1;
+    }
+
+    static boolean startsWith(CharSequence s, String prefix, int from) {
+        if (s instanceof String) {
+            return ((String) s).startsWith(prefix, from);
         }
-        return line.substring(k, n);
+        int n = prefix.length();
+        if (from < 0 || from + n > s.length()) {
+            return false;
+        }
+        for (int i = 0; i < n; i++) {
+            if (s.charAt(from + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
     }
 
-}
\ No newline at end of file
+}
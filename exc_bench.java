@@ -0,0 +1,544 @@
+///usr/bin/env jbang "$0" "$@" ; exit $?
+//JAVA 17+
+//DEPS info.picocli:picocli:4.7.5
+//DEPS org.yaml:snakeyaml:1.33
+//SOURCES exc.java
+
+import static java.lang.System.out;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+
+import org.yaml.snakeyaml.Yaml;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+/**
+ * Benchmarks of the exc pipeline on a generated log.
+ * <p>
+ * The log is generated with a fixed seed, so that runs on different versions of exc
+ * measure the same input. Each benchmark is run for a number of warmup iterations
+ * and then measured; the results are written as JSON in the format of JMH
+ * and can be compared with the results of an earlier run.
+ * </p>
+ */
+@Command(name = "exc_bench", mixinStandardHelpOptions = true, version = "2024-04-05",
+         description = "Benchmarks of exc on a generated log")
+class exc_bench implements Callable<Integer> {
+
+    @Option(names = { "--generate" }, description = "Only generate a log file with the given name.")
+    Path generateFile;
+
+    @Option(names = { "--size" }, description = "Size of the generated log, in MB.")
+    int sizeMB = 64;
+
+    @Option(names = { "--density" }, description = "Exceptions per 1000 log lines.")
+    int density = 5;
+
+    @Option(names = { "--depth" }, description = "Stack frames per exception.")
+    int depth = 20;
+
+    @Option(names = { "--seed" }, description = "Seed of the log generator.")
+    long seed = 42;
+
+    @Option(names = { "--log" }, description = "Existing log file to benchmark instead of a generated one.")
+    Path logFile;
+
+    @Option(names = { "--bench" }, description = "Regular expression for the benchmarks to run.")
+    String benchFilter = ".*";
+
+    @Option(names = { "--warmup" }, description = "Warmup iterations of each benchmark.")
+    int warmup = 3;
+
+    @Option(names = { "--iterations" }, description = "Measured iterations of each benchmark.")
+    int iterations = 5;
+
+    @Option(names = { "--sample-lines" }, description = "Lines kept in memory for the line benchmarks.")
+    int sampleLines = 200_000;
+
+    @Option(names = { "-o", "--output" }, description = "Results file in the JSON format of JMH.")
+    Path resultsFile = Path.of("exc_bench.json");
+
+    @Option(names = { "--baseline" }, description = "Results of an earlier run to compare with.")
+    Path baselineFile;
+
+    /**
+     * Quantile of the normal distribution for the 99.9% confidence interval of a score.
+     */
+    static final double Z_999 = 3.291;
+
+    static final String TIMESTAMP_FORMAT = "yyyy-MM-dd HH:mm:ss,SSS";
+
+    /**
+     * Sink for the results of the benchmarks, so that the JIT cannot remove their work.
+     */
+    static volatile long blackhole;
+
+    public static void main(String... args) {
+        int exitCode = new CommandLine(new exc_bench()).execute(args);
+        System.exit(exitCode);
+    }
+
+    @Override
+    public Integer call() throws Exception {
+        if (generateFile != null) {
+            new LogGenerator(seed, density, depth).write(generateFile, sizeMB * (1L << 20));
+            out.println("File created: " + generateFile);
+            return 0;
+        }
+
+        Path log = logFile;
+        if (log == null) {
+            log = Path.of(String.format("exc_bench-%dmb-%d-%d-%d.log", sizeMB, density, depth, seed));
+            if (!Files.exists(log)) {
+                new LogGenerator(seed, density, depth).write(log, sizeMB * (1L << 20));
+                out.println("File created: " + log);
+            }
+        }
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        Pattern filter = Pattern.compile(benchFilter);
+        for (Benchmark bench : createBenchmarks(log)) {
+            if (filter.matcher(bench.name).find()) {
+                results.add(run(bench, log));
+            }
+        }
+        writeResults(results);
+
+        if (baselineFile != null) {
+            compare(loadResults(baselineFile), results);
+        }
+        return 0;
+    }
+
+    /**
+     * A measured operation. Each call processes the same input and returns
+     * the number of lines it processed.
+     */
+    interface Operation {
+        long run() throws Exception;
+    }
+
+    /**
+     * A named operation on `bytes` of input, that runs on `threads` threads.
+     */
+    record Benchmark(String name, long bytes, int threads, Operation op) {
+
+        Benchmark(String name, long bytes, Operation op) {
+            this(name, bytes, 1, op);
+        }
+
+    }
+
+    /**
+     * Creates the benchmarks: line reading, timestamp and exception extraction
+     * on lines in memory, and processing of the complete file.
+     *
+     * @param log The log file.
+     * @return The benchmarks.
+     * @throws IOException If the log cannot be read.
+     */
+    List<Benchmark> createBenchmarks(Path log) throws IOException {
+        Charset charset = StandardCharsets.UTF_8;
+        long size = Files.size(log);
+
+        List<String> sample = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(log, charset)) {
+            String line;
+            while (sample.size() < sampleLines && (line = in.readLine()) != null) {
+                sample.add(line);
+            }
+        }
+        String[] lines = sample.toArray(new String[0]);
+        long sampleBytes = sample.stream().mapToLong(l -> l.length() + 1).sum();
+
+        exc app = createApp();
+        exc.ExcProcessor proc = app.new ExcProcessor();
+        UnaryOperator<String> simple = app.createTimestampExtractor(false)::extractTimestamp;
+        UnaryOperator<String> fixed = app.createTimestampExtractor(true)::extractTimestamp;
+        UnaryOperator<String> comment = app.createTimestampExtractor(false)::extractComment;
+
+        List<Benchmark> benchmarks = new ArrayList<>();
+        benchmarks.add(new Benchmark("read.mapped.bytes", size, () -> exc.readLines(log, charset, false)));
+        benchmarks.add(new Benchmark("read.mapped.decoded", size, () -> exc.readLines(log, charset, true)));
+        benchmarks.add(new Benchmark("read.buffered", size, () -> {
+            long n = 0;
+            try (BufferedReader in = Files.newBufferedReader(log, charset)) {
+                while (in.readLine() != null) {
+                    n++;
+                }
+            }
+            return n;
+        }));
+        benchmarks.add(new Benchmark("timestamp.simple", sampleBytes, () -> {
+            long found = 0;
+            for (String line : lines) {
+                if (simple.apply(line) != null) {
+                    found++;
+                }
+            }
+            blackhole += found;
+            return lines.length;
+        }));
+        benchmarks.add(new Benchmark("timestamp.fixed", sampleBytes, () -> {
+            long found = 0;
+            for (String line : lines) {
+                if (fixed.apply(line) != null) {
+                    found++;
+                }
+            }
+            blackhole += found;
+            return lines.length;
+        }));
+        benchmarks.add(new Benchmark("comment.memoryInfo", sampleBytes, () -> {
+            long found = 0;
+            for (String line : lines) {
+                if (comment.apply(line) != null) {
+                    found++;
+                }
+            }
+            blackhole += found;
+            return lines.length;
+        }));
+        benchmarks.add(new Benchmark("exception.extract", sampleBytes, () -> {
+            long found = 0;
+            for (String line : lines) {
+                if (proc.extractException(line) != null) {
+                    found++;
+                }
+            }
+            blackhole += found;
+            return lines.length;
+        }));
+        benchmarks.add(new Benchmark("process.sequential", size, () -> process(createApp(), log, charset)));
+        int threads = Runtime.getRuntime().availableProcessors();
+        benchmarks.add(new Benchmark("process.parallel", size, threads, () -> {
+            exc job = createApp();
+            job.parallel = true;
+            job.threads = threads;
+            return process(job, log, charset);
+        }));
+        benchmarks.add(new Benchmark("process.frames", size, () -> {
+            exc job = createApp();
+            job.frames = 5;
+            return process(job, log, charset);
+        }));
+        return benchmarks;
+    }
+
+    /**
+     * @return  an exc command with the options of the generated logs, that prints nothing
+     */
+    static exc createApp() {
+        exc app = new exc();
+        app.timeStampFormat = TIMESTAMP_FORMAT;
+        app.quiet = true;
+        return app;
+    }
+
+    /**
+     * Extracts the exceptions of the log as `exc` does, without printing them.
+     *
+     * @return The number of lines processed.
+     */
+    static long process(exc job, Path log, Charset charset) throws IOException {
+        job.extractExceptions(log, charset);
+        blackhole += job.exceptions.size();
+        return job.proc.lno;
+    }
+
+    /**
+     * Runs the warmup and measured iterations of a benchmark.
+     *
+     * @param bench The benchmark.
+     * @param log The log file, recorded as a parameter of the result.
+     * @return The result in the JSON format of JMH, with the score in MB/s
+     *         and the lines per second as a secondary metric.
+     * @throws Exception If the benchmark fails.
+     */
+    Map<String, Object> run(Benchmark bench, Path log) throws Exception {
+        out.println("# Benchmark: " + bench.name);
+        for (int i = 1; i <= warmup; i++) {
+            long start = System.nanoTime();
+            bench.op.run();
+            out.printf(Locale.ROOT, "# Warmup %d: %.1f s%n", i, (System.nanoTime() - start) / 1e9);
+        }
+        List<Double> mbPerSecond = new ArrayList<>();
+        List<Double> linesPerSecond = new ArrayList<>();
+        for (int i = 1; i <= iterations; i++) {
+            long start = System.nanoTime();
+            long lines = bench.op.run();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            mbPerSecond.add(bench.bytes / 1e6 / seconds);
+            linesPerSecond.add(lines / seconds);
+            out.printf(Locale.ROOT, "Iteration %d: %.1f MB/s, %.0f lines/s%n",
+                       i, mbPerSecond.get(i - 1), linesPerSecond.get(i - 1));
+        }
+
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("log", log.getFileName().toString());
+        if (logFile == null) {
+            params.put("size", String.valueOf(sizeMB));
+            params.put("density", String.valueOf(density));
+            params.put("depth", String.valueOf(depth));
+            params.put("seed", String.valueOf(seed));
+        }
+        Map<String, Object> secondary = new LinkedHashMap<>();
+        secondary.put("lines", metric(linesPerSecond, "lines/s"));
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("benchmark", bench.name);
+        result.put("mode", "thrpt");
+        result.put("threads", bench.threads);
+        result.put("forks", 1);
+        result.put("jvm", System.getProperty("java.home"));
+        result.put("jdkVersion", System.getProperty("java.version"));
+        result.put("warmupIterations", warmup);
+        result.put("measurementIterations", iterations);
+        result.put("params", params);
+        Map<String, Object> primary = metric(mbPerSecond, "MB/s");
+        result.put("primaryMetric", primary);
+        result.put("secondaryMetrics", secondary);
+        out.printf(Locale.ROOT, "Result: %.1f +/- %.1f MB/s%n%n", primary.get("score"), primary.get("scoreError"));
+        return result;
+    }
+
+    /**
+     * @return  mean, 99.9% confidence interval and raw data of the samples
+     */
+    static Map<String, Object> metric(List<Double> samples, String unit) {
+        int n = samples.size();
+        double mean = samples.stream().mapToDouble(Double::doubleValue).average().orElse(Double.NaN);
+        double variance = n < 2 ? 0 : samples.stream().mapToDouble(x -> (x - mean) * (x - mean)).sum() / (n - 1);
+        double error = n < 2 ? Double.NaN : Z_999 * Math.sqrt(variance / n);
+        Map<String, Object> metric = new LinkedHashMap<>();
+        metric.put("score", mean);
+        metric.put("scoreError", error);
+        metric.put("scoreConfidence", List.of(mean - error, mean + error));
+        metric.put("scoreUnit", unit);
+        metric.put("rawData", List.of(samples));
+        return metric;
+    }
+
+    /**
+     * Writes the results as a JSON array.
+     *
+     * @param results The results of the benchmarks.
+     * @throws IOException If the file cannot be written.
+     */
+    void writeResults(List<Map<String, Object>> results) throws IOException {
+        try (PrintStream f = new PrintStream(Files.newOutputStream(resultsFile), false, StandardCharsets.UTF_8)) {
+            f.println(toJson(results, ""));
+        }
+        out.println("File created: " + resultsFile);
+    }
+
+    static String toJson(Object value, String indent) {
+        if (value instanceof Map<?, ?> map) {
+            StringBuilder sb = new StringBuilder("{\n");
+            String sep = "";
+            for (Map.Entry<?, ?> e : map.entrySet()) {
+                sb.append(sep).append(indent).append("    ").append(toJson(e.getKey().toString(), ""))
+                  .append(" : ").append(toJson(e.getValue(), indent + "    "));
+                sep = ",\n";
+            }
+            return sb.append("\n").append(indent).append("}").toString();
+        }
+        if (value instanceof List<?> list) {
+            StringBuilder sb = new StringBuilder("[");
+            String sep = "";
+            for (Object item : list) {
+                sb.append(sep).append(toJson(item, indent));
+                sep = ", ";
+            }
+            return sb.append("]").toString();
+        }
+        if (value instanceof Double d) {
+            return d.isNaN() || d.isInfinite() ? "\"NaN\"" : String.format(Locale.ROOT, "%.3f", d);
+        }
+        if (value instanceof Number) {
+            return value.toString();
+        }
+        String s = value.toString().replace("\\", "\\\\").replace("\"", "\\\"");
+        return "\"" + s + "\"";
+    }
+
+    /**
+     * Loads the results of an earlier run. JSON is read as YAML.
+     *
+     * @param file The results file.
+     * @return The results, by benchmark name.
+     * @throws IOException If the file cannot be read.
+     */
+    static Map<String, Map<String, Object>> loadResults(Path file) throws IOException {
+        Map<String, Map<String, Object>> results = new LinkedHashMap<>();
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            List<Map<String, Object>> list = new Yaml().load(in);
+            for (Map<String, Object> result : list) {
+                results.put((String) result.get("benchmark"), result);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Prints the change of each score against the baseline. A change is reported
+     * as faster or slower only if the confidence intervals do not overlap.
+     * Results measured with different numbers of threads are not compared.
+     *
+     * @param baseline The results of the earlier run, by benchmark name.
+     * @param results The results of this run.
+     */
+    static void compare(Map<String, Map<String, Object>> baseline, List<Map<String, Object>> results) {
+        out.printf(Locale.ROOT, "%-24s %12s %12s %9s%n", "Benchmark", "Baseline", "Score", "Change");
+        for (Map<String, Object> result : results) {
+            String name = (String) result.get("benchmark");
+            Map<String, Object> base = baseline.get(name);
+            if (base == null) {
+                continue;
+            }
+            if (number(base.get("threads")) != number(result.get("threads"))) {
+                out.printf(Locale.ROOT, "%-24s %s threads in the baseline, %s now%n",
+                           name, base.get("threads"), result.get("threads"));
+                continue;
+            }
+            Map<?, ?> before = (Map<?, ?>) base.get("primaryMetric");
+            Map<?, ?> after = (Map<?, ?>) result.get("primaryMetric");
+            double b = number(before.get("score"));
+            double a = number(after.get("score"));
+            double be = number(before.get("scoreError"));
+            double ae = number(after.get("scoreError"));
+            String verdict = "";
+            if (!Double.isNaN(be) && !Double.isNaN(ae)) {
+                verdict = a - ae > b + be ? "  faster" : a + ae < b - be ? "  slower" : "  ~";
+            }
+            out.printf(Locale.ROOT, "%-24s %12.1f %12.1f %+8.1f%%%s%n", name, b, a, (a - b) * 100 / b, verdict);
+        }
+    }
+
+    static double number(Object value) {
+        return value instanceof Number n ? n.doubleValue() : Double.NaN;
+    }
+
+    /**
+     * Generates a Spring Boot style log with the same content for the same seed.
+     * <p>
+     * Most lines are INFO and DEBUG messages and `[memoryInfo]` lines. About `density`
+     * of every 1000 lines start an ERROR with an exception, a stack trace of `depth` frames
+     * and a `Caused by` section. Now and then the application restarts with its banner.
+     * </p>
+     */
+    static class LogGenerator {
+
+        static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern(TIMESTAMP_FORMAT);
+
+        static final String[] EXCEPTIONS = {
+            "java.lang.NullPointerException",
+            "java.lang.IllegalStateException",
+            "java.io.IOException",
+            "java.util.concurrent.TimeoutException",
+            "org.springframework.dao.DataIntegrityViolationException",
+            "org.hibernate.LazyInitializationException",
+            "javax.servlet.ServletException",
+            "java.lang.OutOfMemoryError",
+        };
+
+        static final String[] URIS = { "/api/orders", "/api/users/42", "/health", "/api/products", "/login" };
+
+        static final String[] LOGGERS = {
+            "c.e.s.OrderService", "c.e.s.UserService", "o.s.w.s.DispatcherServlet",
+            "o.h.e.j.s.SqlExceptionHelper", "c.e.w.RequestFilter",
+        };
+
+        final Random random;
+        final int density;
+        final int depth;
+        LocalDateTime time = LocalDateTime.of(2024, 4, 5, 9, 0);
+
+        LogGenerator(long seed, int density, int depth) {
+            this.random = new Random(seed);
+            this.density = density;
+            this.depth = depth;
+        }
+
+        /**
+         * Writes lines until the file has at least `size` bytes.
+         *
+         * @param file The log file to create.
+         * @param size The minimal size in bytes.
+         * @throws IOException If the file cannot be written.
+         */
+        void write(Path file, long size) throws IOException {
+            long written = 0;
+            try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                StringBuilder sb = new StringBuilder();
+                while (written < size) {
+                    sb.setLength(0);
+                    nextEntry(sb);
+                    w.write(sb.toString());
+                    written += sb.length();
+                }
+            }
+        }
+
+        void nextEntry(StringBuilder sb) {
+            time = time.plusNanos(random.nextInt(500) * 1_000_000L);
+            String tstamp = FORMAT.format(time);
+            String thread = "http-nio-8080-exec-" + (1 + random.nextInt(10));
+            int kind = random.nextInt(1000);
+            if (kind < density) {
+                String exception = EXCEPTIONS[random.nextInt(EXCEPTIONS.length)];
+                sb.append(tstamp).append(" ERROR 4711 --- [").append(thread).append("] ")
+                  .append(LOGGERS[random.nextInt(LOGGERS.length)]).append(" : Request processing failed\n");
+                sb.append(exception).append(": failed to process request ").append(random.nextInt(100_000)).append('\n');
+                appendFrames(sb, depth);
+                String cause = EXCEPTIONS[random.nextInt(EXCEPTIONS.length)];
+                sb.append("Caused by: ").append(cause).append(": root cause\n");
+                appendFrames(sb, Math.max(depth / 4, 1));
+                sb.append("\t... ").append(depth).append(" more\n");
+            } else if (kind < density + 2 && random.nextInt(100) == 0) {
+                sb.append(tstamp).append("  INFO 4711 --- [           main] c.e.Banner :   :: Spring Boot ::  (v3.2.4)\n");
+                sb.append(tstamp).append("  INFO 4711 --- [           main] c.e.Application : Starting Application\n");
+            } else if (kind < 300) {
+                sb.append(tstamp).append("  INFO 4711 --- [").append(thread).append("] c.e.w.RequestFilter : ")
+                  .append("[memoryInfo] uri=").append(URIS[random.nextInt(URIS.length)])
+                  .append(", free=").append(100_000_000 + random.nextInt(400_000_000))
+                  .append(", total=1073741824, max=2147483648\n");
+            } else {
+                sb.append(tstamp).append(kind < 700 ? " DEBUG" : "  INFO").append(" 4711 --- [").append(thread).append("] ")
+                  .append(LOGGERS[random.nextInt(LOGGERS.length)]).append(" : Processed item ")
+                  .append(random.nextInt(1_000_000)).append(" for customer ").append(random.nextInt(10_000))
+                  .append(" in ").append(random.nextInt(2000)).append(" ms\n");
+            }
+        }
+
+        void appendFrames(StringBuilder sb, int frames) {
+            for (int i = 0; i < frames; i++) {
+                int k = random.nextInt(40);
+                sb.append("\tat com.example.service.Service").append(k).append(".method").append(i)
+                  .append("(Service").append(k).append(".java:").append(10 + random.nextInt(500)).append(")\n");
+            }
+        }
+
+    }
+
+}
@@ -4,6 +4,10 @@
 //DEPS info.picocli:picocli:4.7.5
 //DEPS org.apache.commons:commons-csv:1.10.0
 //DEPS org.yaml:snakeyaml:1.33
+//DEPS org.eclipse.jgit:org.eclipse.jgit:6.9.0.202403050737-r
+//DEPS org.slf4j:slf4j-api:2.0.13
+//DEPS org.slf4j:slf4j-simple:2.0.13
+//SOURCES AhoCorasick.java
 
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
@@ -13,30 +17,65 @@ import picocli.CommandLine.Option;
 import static java.lang.System.out;
 import static java.lang.System.err;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.MalformedInputException;
-import java.nio.file.FileVisitResult;
-import java.nio.file.FileVisitor;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.Period;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.Callable;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
 
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryBuilder;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
 import org.yaml.snakeyaml.Yaml;
 
 /**
@@ -58,6 +97,26 @@ class p_stats implements Callable<Integer> {
             description = "Folder to download resources if not available.")
     Path resourcesFolder;
 
+    @Option(names = { "--git" },
+            description = "Count the files tracked in the git index instead of walking the input folder.")
+    boolean git;
+
+    @Option(names = { "--history" },
+            description = "Period of the git history to sample, as P2Y for two years.")
+    Period history;
+
+    @Option(names = { "--every" }, defaultValue = "P1W",
+            description = "Period between two samples of the git history.")
+    Period every;
+
+    @Option(names = { "--no-cache" },
+            description = "Read all files, without the results of the previous run.")
+    boolean noCache;
+
+    @Option(names = { "-t", "--threads" },
+            description = "Number of threads scanning the folder, 1 for a sequential scan.")
+    int threads = Runtime.getRuntime().availableProcessors();
+
     // {{{ Output files
     // Output CSV file name for all file type counts
     String outputCsvName = "p_stats.csv";
@@ -67,6 +126,12 @@ class p_stats implements Callable<Integer> {
     
     // Output CSV file with errors
     String errorsCsvName = "p_errors.csv";
+
+    // Results of each source file, reused by the next run
+    String cacheName = "p_cache.tsv";
+
+    // Output CSV file with the counts of each sample of the git history
+    String historyCsvName = "p_history.csv";
     // }}}
     
     Yaml yaml = new Yaml();
@@ -74,6 +139,7 @@ class p_stats implements Callable<Integer> {
     int totalFileCount = 0;
     int totalLineCount = 0;
     int totalSourceCount = 0;
+    int totalCachedCount = 0;
     long totalSize = 0;
 
     List<String> excludedFolders = List.of(".git", ".angular", ".gradle", "bin", "build", "node_modules", "target");
@@ -88,12 +154,11 @@ class p_stats implements Callable<Integer> {
      * Map where each file extension is mapped to the name of the language.
      */
     Map<String, String> sourceFileTypes;
-    
-    // List of file extensions to search for javascript tests.
-    List<String> jsFileTypes = List.of(
-        "js", "jsx", "ts", "tsx"
-    );
 
+    // Snapshot of `sourceFileTypes` in `resourcesFolder`
+    String snapshotName = "languages.bin";
+    final String SNAPSHOT_MAGIC = "p_stats languages 1";
+    
     // {{{ Project counts
     List<String> projectFiles = List.of(
         "package.json", "pom.xml", "build.gradle"
@@ -108,33 +173,66 @@ class p_stats implements Callable<Integer> {
     
     List<ErrorRecord> errors = new ArrayList<>();
 
-    /* Regular expressions to count tests */
+    // {{{ Cache
+    // Version of the cache format and of the counts
+    final String CACHE_VERSION = "2";
 
-    String javaTestRegex = "@Test";
-    Pattern javaTestPattern = Pattern.compile(javaTestRegex);
-    
-    String jsTestRegex = "\\bit\\(|\\btest\\(";
-    Pattern jsTestPattern = Pattern.compile(jsTestRegex);
+    // Source files of the previous run, by path relative to the input folder
+    Map<String, CachedFile> cachedFiles = new HashMap<>();
 
-    String csTestRegex = "\\[Test\\]|\\[TestMethod\\]|\\[Fact\\]";
-    Pattern csTestPattern = Pattern.compile(csTestRegex);
+    // Source files of this run
+    List<CachedFile> scannedFiles = new ArrayList<>();
+
+    // Time of the start of the scan in milliseconds
+    long scanStart;
+
+    // Results of the blobs of the git history, by blob and test language
+    Map<BlobKey, CachedFile> blobResults = new ConcurrentHashMap<>();
+    // }}}
 
-    String pythonTestRegex = "^def test_";
-    Pattern pythonTestPattern = Pattern.compile(pythonTestRegex, Pattern.MULTILINE);
+    // {{{ Test markers
+    @Option(names = { "--tests" },
+            description = "YAML file of the test markers of each language.")
+    Path testsFile;
 
-    // {{{ Dictionaries
-    /* Dictionary is a map with a `String` key.
-       File extension is used as a key.
-       We use `df` as 2D Dictionary (aka DataFrame) that contains the counts for each parameter.
-       Each parameter is 1D Dictionary (aka Series).
+    /* Each language lists its extensions and the markers counted as tests.
+       A marker is a literal text, except a leading `^` for the start of a line,
+       or `\b` for the start of a word, as in regular expressions.
      */
-     
-    Map<String, Map<String, Long>> df = new HashMap<>();
+    static final String DEFAULT_TESTS = """
+        Java:
+          extensions: [java]
+          markers: ['@Test']
+        JavaScript:
+          extensions: [js, jsx, ts, tsx]
+          markers: ['\\bit(', '\\btest(']
+        C#:
+          extensions: [cs]
+          markers: ['[Test]', '[TestMethod]', '[Fact]']
+        Python:
+          extensions: [py]
+          markers: ['^def test_']
+        Kotlin:
+          extensions: [kt, kts]
+          markers: ['@Test']
+        Go:
+          extensions: [go]
+          markers: ['^func Test']
+        Rust:
+          extensions: [rs]
+          markers: ['#[test]', '#[tokio::test]']
+        """;
 
-    Map<String, Long> fileCounts;
-    Map<String, Long> lineCounts;
-    Map<String, Long> sizeCounts;
-    Map<String, Long> testCounts;
+    TestMatcher testMatcher;
+    // }}}
+
+    // {{{ Counters
+    /* `counters` is a columnar table (aka DataFrame) of the counts for each file extension.
+       Extensions are interned to ids, and each parameter is a `long[]` column indexed by id.
+       Each scanning thread adds to its own stripe of the table, so that the threads never
+       share a counter. The stripes are summed once the scan is over.
+     */
+    CounterTable counters = new CounterTable();
     // }}}
     
     final String HR = "---------------------";
@@ -158,12 +256,6 @@ class p_stats implements Callable<Integer> {
             Files.createDirectories(outputFolder);
         }
         
-        // Create Series for each parameter
-        fileCounts = newSeries("files");
-        lineCounts = newSeries("lines");
-        sizeCounts = newSeries("size");
-        testCounts = newSeries("tests");
-        
         // Create lists in `projectPaths`
         for (String file: projectFiles) {
             projectPaths.put(file, new ArrayList<String>());
@@ -174,81 +266,346 @@ class p_stats implements Callable<Integer> {
         Path langPath = downloadYaml("languages.yml", 
                  "https://raw.githubusercontent.com/github-linguist/linguist/master/lib/linguist/languages.yml");
 
-        languages = yaml.load(Files.newInputStream(langPath));
-        
-        sourceFileTypes = extractSourceFileTypes(languages);
+        // The YAML file is parsed only when the snapshot was made from another version
+        Path snapshotPath = resourcesFolder.resolve(snapshotName);
+        String langHash = hashLanguages(langPath);
+        sourceFileTypes = loadSnapshot(snapshotPath, langHash);
+        if (sourceFileTypes == null) {
+            languages = yaml.load(Files.newInputStream(langPath));
+            sourceFileTypes = extractSourceFileTypes(languages);
+            saveSnapshot(snapshotPath, langHash, sourceFileTypes);
+        }
+
+        Map<String, Map<String, Object>> tests = testsFile == null
+                ? yaml.load(DEFAULT_TESTS)
+                : yaml.load(Files.newInputStream(testsFile));
+        testMatcher = new TestMatcher(tests);
 
-        /* Process each file in the tree.
+        if (history != null) {
+            return scanHistory();
+        }
+
+        if (!noCache) {
+            loadCache(cacheName);
+        }
+
+        /* Process each file in the tree, or in the git index.
+           Folders and files are tasks of a fork/join pool. Each task returns the project
+           and error records of its files in the order of a sequential walk,
+           so that the CSV files do not depend on the number of threads.
          */
+        scanStart = System.currentTimeMillis();
+        RecursiveTask<List<Object>> scan;
+        if (git) {
+            List<Path> files = listGitFiles();
+            if (files == null) {
+                out.println("[ERROR] Git work tree not found: " + inputFolder);
+                return 1;
+            }
+            scan = new IndexTask(files, 0, files.size());
+        } else {
+            scan = new FolderTask(inputFolder);
+        }
         out.print("Scanning..");
-        Files.walkFileTree(inputFolder, new FileVisitor<Path>() {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<Object> records;
+        try {
+            records = pool.invoke(scan);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+        mergeCounts();
+        for (Object rec: records) {
+            if (rec instanceof ProjectRecord p) {
+                projectPaths.get(p.file()).add(p.path());
+            } else if (rec instanceof CachedFile f) {
+                scannedFiles.add(f);
+            } else {
+                errors.add((ErrorRecord) rec);
+            }
+        }
+        out.println('.');
+
+        outputResults();
+        return 0;
+    }
+    
+    /**
+     * Scan a folder: files and subfolders are forked, then joined in the order of the folder.
+     */
+    class FolderTask extends RecursiveTask<List<Object>> {
+        private static final long serialVersionUID = 1L;
+
+        final Path dir;
+
+        FolderTask(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected List<Object> compute() {
+            Path name = dir.getFileName();
+            if (name != null && excludedFolders.contains(name.toString())) {
+                return List.of();
+            }
+            List<RecursiveTask<List<Object>>> tasks = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path entry: stream) {
+                    RecursiveTask<List<Object>> task;
+                    try {
+                        BasicFileAttributes attrs = Files.readAttributes(entry, BasicFileAttributes.class,
+                                LinkOption.NOFOLLOW_LINKS);
+                        task = attrs.isDirectory() ? new FolderTask(entry) : new FileTask(entry, attrs);
+                    } catch (IOException e) {
+                        System.err.println(e);
+                        continue;
+                    }
+                    task.fork();
+                    tasks.add(task);
+                }
+            } catch (IOException e) {
+                System.err.println(e);
+                return List.of();
+            }
+
+            List<Object> records = new ArrayList<>();
+            for (RecursiveTask<List<Object>> task: tasks) {
+                records.addAll(task.join());
+            }
+            return records;
+        }
+    }
+
+    class FileTask extends RecursiveTask<List<Object>> {
+        private static final long serialVersionUID = 1L;
+
+        final Path file;
+        final BasicFileAttributes attrs;
+
+        FileTask(Path file, BasicFileAttributes attrs) {
+            this.file = file;
+            this.attrs = attrs;
+        }
+
+        @Override
+        protected List<Object> compute() {
+            List<Object> records = new ArrayList<>(1);
+            try {
+                processFile(file, attrs, records);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return records;
+        }
+    }
+
+    /**
+     * Scan the files from `from` to `to`, split in halves until there are few enough.
+     */
+    class IndexTask extends RecursiveTask<List<Object>> {
+        private static final long serialVersionUID = 1L;
+
+        final List<Path> files;
+        final int from;
+        final int to;
 
-            @Override
-            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+        IndexTask(List<Path> files, int from, int to) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
 
-                if (excludedFolders.contains(dir.getFileName().toString())) {
-                    return FileVisitResult.SKIP_SUBTREE;
-                } else {
-                    return FileVisitResult.CONTINUE;
+        @Override
+        protected List<Object> compute() {
+            if (to - from <= 64) {
+                List<Object> records = new ArrayList<>();
+                for (int i = from; i < to; i++) {
+                    records.addAll(new FileTask(files.get(i), null).compute());
                 }
+                return records;
             }
+            int mid = (from + to) >>> 1;
+            IndexTask first = new IndexTask(files, from, mid);
+            first.fork();
+            List<Object> second = new IndexTask(files, mid, to).compute();
+            List<Object> records = first.join();
+            records.addAll(second);
+            return records;
+        }
+    }
 
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                processFile(file);
-                return FileVisitResult.CONTINUE;
+    /**
+     * List the files of `inputFolder` tracked in the index of its git repository,
+     * except submodules and files in `excludedFolders`.
+     *
+     * @return  the files in the order of the index, or null if `inputFolder` is not in a git work tree
+     */
+    List<Path> listGitFiles() throws IOException {
+        try (Repository repository = openRepository()) {
+            if (repository == null) {
+                return null;
             }
+            String prefix = gitPrefix(repository);
 
-            @Override
-            public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
-                System.err.println(exc);
-                return FileVisitResult.CONTINUE;
+            DirCache index = repository.readDirCache();
+            List<Path> files = new ArrayList<>(index.getEntryCount());
+            String last = null;
+            for (int i = 0; i < index.getEntryCount(); i++) {
+                DirCacheEntry entry = index.getEntry(i);
+                String path = entry.getPathString();
+
+                // Conflicting files have an entry for each stage
+                if (entry.getFileMode() == FileMode.GITLINK || path.equals(last)) {
+                    continue;
+                }
+                last = path;
+
+                if (!prefix.isEmpty()) {
+                    if (!path.startsWith(prefix + "/")) {
+                        continue;
+                    }
+                    path = path.substring(prefix.length() + 1);
+                }
+                if (!isExcluded(path)) {
+                    files.add(inputFolder.resolve(path));
+                }
             }
+            return files;
+        }
+    }
+
+    /**
+     * @return  the git repository whose work tree contains `inputFolder`, or null if there is none
+     */
+    Repository openRepository() throws IOException {
+        RepositoryBuilder builder = new RepositoryBuilder().findGitDir(inputFolder.toRealPath().toFile());
+        if (builder.getGitDir() == null) {
+            return null;
+        }
+        Repository repository = builder.build();
+        if (repository.isBare()) {
+            repository.close();
+            return null;
+        }
+        return repository;
+    }
 
-            @Override
-            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-                return FileVisitResult.CONTINUE;
+    /**
+     * @return  path of `inputFolder` in the work tree of `repository`, empty for the root of the work tree
+     */
+    String gitPrefix(Repository repository) throws IOException {
+        Path workTree = repository.getWorkTree().toPath().toRealPath();
+        return workTree.relativize(inputFolder.toRealPath()).toString().replace('\\', '/');
+    }
+
+    /**
+     * @return  true if a folder of the relative `path` is in `excludedFolders`
+     */
+    boolean isExcluded(String path) {
+        String[] names = path.split("/");
+        for (int i = 0; i < names.length - 1; i++) {
+            if (excludedFolders.contains(names[i])) {
+                return true;
             }
-        });
-        out.println('.');
+        }
+        return false;
+    }
 
-        outputResults();
-        return 0;
+    /**
+     * Sum the counts of all threads into the totals.
+     */
+    void mergeCounts() {
+        for (Counts c: counters.stripes) {
+            totalFileCount += c.fileCount;
+            totalSourceCount += c.sourceCount;
+            totalCachedCount += c.cachedCount;
+        }
+        totalLineCount = (int) counters.total(CounterTable.LINES);
+        totalSize = counters.total(CounterTable.SIZE);
     }
-    
+
     Map<String, String> extractSourceFileTypes(Map<String, Map<String, Object>> languages) {
         
         // Collect all language names and sort them accrording to `knownLanguages`
         List<String> languagePriority = new ArrayList<>(languages.keySet());
         languagePriority.sort(new LanguagePriorityComparator());
 
-        // Transform the map and collect into a List of Map Entries
-        List<Map.Entry<String, String>> entryList = languages.entrySet().stream()
-                .flatMap(entry -> {
-                    Object value = entry.getValue().get("extensions");
-                    if (value instanceof List) {
-                        
-                        @SuppressWarnings("unchecked")
-                        List<String> extensions = (List<String>) value;
+        // Rank of each language in `languagePriority`
+        Map<String, Integer> ranks = new HashMap<>();
+        for (String lang: languagePriority) {
+            ranks.put(lang, ranks.size());
+        }
 
-                        return extensions.stream().map(ext -> Map.entry(ext.substring(1), entry.getKey()));
-                    }
-                    return Stream.<Map.Entry<String, String>>empty();
-                })
-                .sorted(Comparator.comparingInt((Map.Entry<String, String> e) -> languagePriority.indexOf(e.getValue()))
-                        .thenComparing(Map.Entry::getKey))
-                .distinct()
-                .collect(Collectors.toList());
+        // Map each extension to its language of lowest rank
+        Map<String, String> types = new HashMap<>();
+        for (Map.Entry<String, Map<String, Object>> entry: languages.entrySet()) {
+            Object value = entry.getValue().get("extensions");
+            if (value instanceof List) {
 
-        // Convert the List of Map Entries into a Map
-        return entryList.stream()
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (v1, v2) -> v1));         
+                @SuppressWarnings("unchecked")
+                List<String> extensions = (List<String>) value;
+
+                for (String ext: extensions) {
+                    types.merge(ext.substring(1), entry.getKey(),
+                            (v1, v2) -> ranks.get(v1) <= ranks.get(v2) ? v1 : v2);
+                }
+            }
+        }
+        return types;
     }
-    
-    Map<String, Long> newSeries(String param) {
-        HashMap<String, Long> series = new HashMap<>();
-        df.put(param, series);
-        return series;
+
+    /**
+     * @return  hash of the content of `langPath` and of the known languages,
+     *          which identifies the snapshot of `sourceFileTypes` made from them.
+     */
+    String hashLanguages(Path langPath) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(Files.readAllBytes(langPath));
+            digest.update(new LanguagePriorityComparator().knownLanguages.toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return  the extensions of the snapshot, or null if it does not exist or was made from another hash
+     */
+    Map<String, String> loadSnapshot(Path file, String hash) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (!SNAPSHOT_MAGIC.equals(in.readUTF()) || !hash.equals(in.readUTF())) {
+                return null;
+            }
+            int n = in.readInt();
+            Map<String, String> types = new HashMap<>(n * 4 / 3 + 1);
+            for (int i = 0; i < n; i++) {
+                types.put(in.readUTF(), in.readUTF());
+            }
+            return types;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    void saveSnapshot(Path file, String hash, Map<String, String> types) throws IOException {
+        List<String> extList = new ArrayList<>(types.keySet());
+        Collections.sort(extList);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeUTF(SNAPSHOT_MAGIC);
+            out.writeUTF(hash);
+            out.writeInt(extList.size());
+            for (String ext: extList) {
+                out.writeUTF(ext);
+                out.writeUTF(types.get(ext));
+            }
+        }
     }
     
     /**
@@ -271,70 +628,97 @@ class p_stats implements Callable<Integer> {
         return file;
     }
 
-    void processFile(Path file) throws IOException {
-        totalFileCount++;
-        if (totalFileCount % 1000 == 0) {
+    /**
+     * Count `file` in the counts of the current thread.
+     * Project paths and errors are added to `records` as `ProjectRecord` and `ErrorRecord`,
+     * and the results of a source file as `CachedFile`.
+     * `attrs` is null for files of the git index, which are not read unless they are source files.
+     */
+    void processFile(Path file, BasicFileAttributes attrs, List<Object> records) throws IOException {
+        Counts c = counters.stripe();
+        c.fileCount++;
+        if (c.fileCount % 1000 == 0) {
             out.print('.');
         }
 
         String ext = getFileExtension(file.getFileName().toString());        
         String sourceFileType = sourceFileTypes.get(ext);
         if (sourceFileType != null) {
-            totalSourceCount++;
+            c.sourceCount++;
 
-            try {          
-                int nl = countLines(file);
-                long nb = Files.size(file);
-                if (nb == 0) {
-                    errors.add(new ErrorRecord("EmptyFileException", file.toString()));
+            String path = file.toAbsolutePath().toString().substring(baseFolderLen);
+            if (attrs == null || attrs.isSymbolicLink()) {
+                try {
+                    attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    // Broken link, or file of the git index deleted from the work tree
+                    records.add(new ErrorRecord("NoSuchFileException", file.toString()));
                     return;
                 }
-                
-                // Add counters if there was no MalformedInputException
-                
-                addCounter(fileCounts, ext, 1);
-
-                totalLineCount += nl;
-                addCounter(lineCounts, ext, nl);
-                
-                totalSize += nb;
-                addCounter(sizeCounts, ext, nb);
-
-                String fileName = file.getFileName().toString();
-                if (projectFiles.contains(fileName)) {
-                    List<String> pathList = projectPaths.get(fileName);
-                    pathList.add(file.toAbsolutePath().toString().substring(baseFolderLen));
-                }
-                
-                String input = Files.readString(file);
-                if (ext.equals("java")) {
-                    int k = countJavaTests(input);
-                    addCounter(testCounts, ext, k);
-                } else 
-                if (jsFileTypes.contains(ext)) {
-                    int k = countJsTests(input);
-                    addCounter(testCounts, ext, k);                
-                } else
-                if (ext.equals("cs")) {
-                    int k = countCsTests(input);
-                    addCounter(testCounts, ext, k); 
-                } else
-                if (ext.equals("py")) {
-                    int k = countPythonTests(input);
-                    addCounter(testCounts, ext, k); 
-                }
-            } catch (MalformedInputException e) {
-                errors.add(new ErrorRecord("MalformedInputException", file.toString()));
+            }
+            long mtime = attrs.lastModifiedTime().toMillis();
+
+            // Unchanged files are not opened
+            CachedFile result = cachedFiles.get(path);
+            if (result != null && result.size() == attrs.size() && result.mtime() == mtime) {
+                c.cachedCount++;
+            } else {
+                result = readFile(file, ext, path, mtime);
+            }
+
+            // Files modified during the scan may change again with the same time, they are not cached
+            if (mtime < scanStart - 2000) {
+                records.add(result);
+            }
+
+            if (!result.error().isEmpty()) {
+                records.add(new ErrorRecord(result.error(), file.toString()));
+                return;
+            }
+            
+            countResult(counters, c, ext, result);
+
+            String fileName = file.getFileName().toString();
+            if (projectFiles.contains(fileName)) {
+                records.add(new ProjectRecord(fileName, path));
             }
         }
     }
 
     /**
-     * Add to counter with extension `ext`.
+     * Add the results of a source file without error to the stripe `c` of `table`.
      */
-    void addCounter(Map<String, Long> countMap, String ext, long n) {
-        Long k = countMap.get(ext);
-        countMap.put(ext, k == null ? n : k + n);
+    void countResult(CounterTable table, Counts c, String ext, CachedFile result) {
+        int id = table.id(ext);
+        c.add(CounterTable.FILES, id, 1);
+        c.add(CounterTable.LINES, id, result.lines());
+        c.add(CounterTable.SIZE, id, result.size());
+        if (result.tests() >= 0) {
+            c.add(CounterTable.TESTS, id, result.tests());
+        }
+    }
+
+    /**
+     * Read a source file to count its lines and tests.
+     */
+    CachedFile readFile(Path file, String ext, String path, long mtime) throws IOException {
+        // The file is read once, its bytes are used for all the counts
+        return countContent(FileContent.read(file), ext, path, mtime);
+    }
+
+    CachedFile countContent(FileContent content, String ext, String path, long mtime) {
+        long nb = content.size();
+        if (nb == 0) {
+            return new CachedFile(path, nb, mtime, 0, -1, "EmptyFileException");
+        }
+
+        int language = testMatcher.language(ext);
+        try {
+            content.scan(testMatcher, language);
+        } catch (MalformedInputException e) {
+            return new CachedFile(path, nb, mtime, 0, -1, "MalformedInputException");
+        }
+        return new CachedFile(path, nb, mtime, content.lines, language < 0 ? -1 : content.tests, "");
     }
 
     /**
@@ -352,113 +736,39 @@ class p_stats implements Callable<Integer> {
         return "";
     }
 
-    /** 
-     * Count lines in a text file
-     */ 
-    int countLines(Path file) throws IOException, MalformedInputException {
-        int count = 0;
-        try (BufferedReader reader = Files.newBufferedReader(file)) {
-            while (reader.readLine() != null) {
-                count++;
-            }
-        }
-        return count;
-    }
-
-    int countJavaTests(String input) throws IOException {
-        Matcher matcher = javaTestPattern.matcher(input);
-        int count = 0;
-        while (matcher.find()) {
-            count++;
-        }
-        return count;
-    }
-
-    int countJsTests(String input) throws IOException {
-        Matcher matcher = jsTestPattern.matcher(input);
-        int count = 0;
-        while (matcher.find()) {
-            count++;
-        }
-        return count;
-    }
-
-    int countCsTests(String input) throws IOException {
-        Matcher matcher = csTestPattern.matcher(input);
-        int count = 0;
-        while (matcher.find()) {
-            count++;
-        }
-        return count;
-    }
-
-    int countPythonTests(String input) throws IOException {
-        Matcher matcher = pythonTestPattern.matcher(input);
-        int count = 0;
-        while (matcher.find()) {
-            count++;
-        }
-        return count;
-    }
-
     void outputResults() throws IOException {
         
-        saveCountsToCsv(df, outputCsvName);
+        saveCountsToCsv(counters, outputCsvName);
         
         saveProjectsToCsv(projectPaths, projectsCsvName);
 
         saveErrorsToCsv(errors, errorsCsvName);
 
+        saveCache(scannedFiles, cacheName);
+
         // Print totals
         out.println(HR);
         out.println(" Total files: " + totalFileCount);
         out.println("Source files: " + totalSourceCount);
+        out.println("Cached files: " + totalCachedCount);
         out.println(" Total lines: " + totalLineCount);
         out.println("  Total size: " + totalSize);
         out.println("      Errors: " + errors.size());    
     }
 
     /**
-     * Save dictionary to CSV
+     * Save counters to CSV
      */ 
-    void saveCountsToCsv(Map<String, Map<String, Long>> df, String csvName) throws IOException {
+    void saveCountsToCsv(CounterTable counters, String csvName) throws IOException {
 
         BufferedWriter writer = Files.newBufferedWriter(outputFolder.resolve(csvName));
 
-        List<String> extList = new ArrayList<>(fileCounts.keySet());
-        Collections.sort(extList);
-
-        List<String> params = new ArrayList<>(df.keySet());
-        Collections.sort(params);
-
-        writer.write("language, ext, " + String.join(", ", params) + "\n");
-        for (String ext: extList) {
-            String lang = sourceFileTypes.get(ext);
-
-            // Extract values for this extension type
-            long files = 0L;
-            long lines = 0L;
-            long size = 0L;
-            long tests = 0L;
-            if (lang == null) {
-                lang = "";
-            } else {
-                // out.println("ext: " + ext + ", lang: " + lang);
-                files = fileCounts.get(ext);
-                lines = nullAsZero(lineCounts.get(ext));
-                size = nullAsZero(sizeCounts.get(ext));
-                tests = nullAsZero(testCounts.get(ext));
-            }
-            writer.write(String.format("%s, %s, %d, %d, %d, %d\n", lang, ext, files, lines, size, tests));
-        }
+        writer.write("language, ext, " + String.join(", ", CounterTable.PARAMS) + "\n");
+        counters.writeRows(writer, "", sourceFileTypes);
         writer.close();
         out.println("File created: " + csvName);        
     }
     
-    long nullAsZero(Long obj) {
-        return obj == null? 0 : obj;
-    }
-    
     void saveProjectsToCsv(Map<String, List<String>> projectPaths, String csvName) throws IOException {
         BufferedWriter writer = Files.newBufferedWriter(outputFolder.resolve(csvName));
         
@@ -484,6 +794,206 @@ class p_stats implements Callable<Integer> {
         out.println("File created: " + csvName);           
     }
 
+    // {{{ History
+    /**
+     * Sample the first-parent history of HEAD over `history`, one commit every `every`,
+     * and save the counts of each sample. Files are read from the git objects, not checked out,
+     * and the commits are counted in parallel.
+     */
+    int scanHistory() throws Exception {
+        if (every.isZero() || every.isNegative()) {
+            out.println("[ERROR] Positive period expected: " + every);
+            return 1;
+        }
+        try (Repository repository = openRepository()) {
+            if (repository == null) {
+                out.println("[ERROR] Git work tree not found: " + inputFolder);
+                return 1;
+            }
+            String prefix = gitPrefix(repository);
+            List<Sample> samples = sampleCommits(repository);
+
+            // Several samples have the same commit when there was no commit in between
+            Map<RevCommit, CounterTable> commitCounts = new HashMap<>();
+            for (Sample sample: samples) {
+                commitCounts.put(sample.commit(), null);
+            }
+            List<RevCommit> commits = new ArrayList<>(commitCounts.keySet());
+            List<Callable<CounterTable>> tasks = new ArrayList<>();
+            for (RevCommit commit: commits) {
+                tasks.add(() -> countCommit(repository, prefix, commit));
+            }
+
+            out.print("Scanning..");
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                List<Future<CounterTable>> results = pool.invokeAll(tasks);
+                for (int i = 0; i < commits.size(); i++) {
+                    commitCounts.put(commits.get(i), results.get(i).get());
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException io) {
+                    throw io;
+                }
+                throw e;
+            } finally {
+                pool.shutdown();
+            }
+            out.println('.');
+
+            saveHistoryToCsv(samples, commitCounts, historyCsvName);
+
+            out.println(HR);
+            out.println("     Samples: " + samples.size());
+            out.println("     Commits: " + commits.size());
+            out.println("  Blobs read: " + blobResults.size());
+        }
+        return 0;
+    }
+
+    /**
+     * @return  the latest commit at each sample time, from HEAD back to `history`, the oldest first
+     */
+    List<Sample> sampleCommits(Repository repository) throws IOException {
+        List<Sample> samples = new ArrayList<>();
+        ObjectId headId = repository.resolve(Constants.HEAD);
+        if (headId == null) {
+            return samples;
+        }
+        try (RevWalk walk = new RevWalk(repository)) {
+            RevCommit head = walk.parseCommit(headId);
+            walk.setFirstParent(true);
+            walk.markStart(head);
+
+            ZonedDateTime time = Instant.ofEpochSecond(head.getCommitTime()).atZone(ZoneOffset.UTC);
+            ZonedDateTime end = time.minus(history);
+            for (RevCommit commit: walk) {
+                ZonedDateTime commitTime = Instant.ofEpochSecond(commit.getCommitTime()).atZone(ZoneOffset.UTC);
+                while (!time.isBefore(commitTime) && !time.isBefore(end)) {
+                    samples.add(new Sample(time.toLocalDate(), commit));
+                    time = time.minus(every);
+                }
+                if (time.isBefore(end)) {
+                    break;
+                }
+            }
+        }
+        Collections.reverse(samples);
+        return samples;
+    }
+
+    /**
+     * Count the files of `inputFolder` in the tree of `commit`, except submodules,
+     * links and files in `excludedFolders`.
+     */
+    CounterTable countCommit(Repository repository, String prefix, RevCommit commit) throws IOException {
+        CounterTable table = new CounterTable();
+        Counts c = table.stripe();
+        try (ObjectReader reader = repository.newObjectReader();
+             TreeWalk walk = new TreeWalk(repository, reader)) {
+            walk.addTree(commit.getTree());
+            if (!prefix.isEmpty()) {
+                walk.setFilter(PathFilter.create(prefix));
+            }
+            while (walk.next()) {
+                // Only the files below `prefix` are counted
+                boolean below = walk.getPathString().length() > prefix.length();
+                FileMode mode = walk.getFileMode(0);
+                if (walk.isSubtree()) {
+                    if (!below || !excludedFolders.contains(walk.getNameString())) {
+                        walk.enterSubtree();
+                    }
+                } else if (below && mode != FileMode.GITLINK) {
+                    c.fileCount++;
+                    String ext = getFileExtension(walk.getNameString());
+                    if (sourceFileTypes.get(ext) != null && mode != FileMode.SYMLINK) {
+                        c.sourceCount++;
+                        CachedFile result = countBlob(reader, walk.getObjectId(0), ext, walk.getPathString());
+                        if (result.error().isEmpty()) {
+                            countResult(table, c, ext, result);
+                        }
+                    }
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Count a source file of the history, each blob is read once for all the samples.
+     */
+    CachedFile countBlob(ObjectReader reader, ObjectId id, String ext, String path) throws IOException {
+        BlobKey key = new BlobKey(id, testMatcher.language(ext));
+        CachedFile result = blobResults.get(key);
+        if (result == null) {
+            ObjectLoader loader = reader.open(id, Constants.OBJ_BLOB);
+            byte[] bytes = loader.isLarge() ? loader.openStream().readAllBytes() : loader.getCachedBytes();
+            result = countContent(new FileContent(ByteBuffer.wrap(bytes)), ext, path, 0);
+            blobResults.putIfAbsent(key, result);
+        }
+        return result;
+    }
+
+    void saveHistoryToCsv(List<Sample> samples, Map<RevCommit, CounterTable> commitCounts, String csvName) throws IOException {
+        BufferedWriter writer = Files.newBufferedWriter(outputFolder.resolve(csvName));
+        writer.write("date, commit, language, ext, " + String.join(", ", CounterTable.PARAMS) + "\n");
+        for (Sample sample: samples) {
+            String prefix = sample.date() + ", " + sample.commit().abbreviate(8).name() + ", ";
+            commitCounts.get(sample.commit()).writeRows(writer, prefix, sourceFileTypes);
+        }
+        writer.close();
+        out.println("File created: " + csvName);
+    }
+    // }}}
+
+    /**
+     * Load the results of the previous run, unless it was made with another version,
+     * other test markers or another input folder.
+     */
+    void loadCache(String cacheName) throws IOException {
+        Path file = outputFolder.resolve(cacheName);
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String header = reader.readLine();
+            if (!cacheHeader().equals(header)) {
+                out.println("Ignored cache: " + file);
+                return;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                CachedFile f = new CachedFile(fields[5], Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                        Integer.parseInt(fields[2]), Integer.parseInt(fields[3]), fields[4]);
+                cachedFiles.put(f.path(), f);
+            }
+        } catch (RuntimeException e) {
+            out.println("Ignored cache: " + file + ": " + e);
+            cachedFiles.clear();
+        }
+    }
+
+    String cacheHeader() {
+        return "p_cache\t" + CACHE_VERSION + "\t" + testMatcher.hash() + "\t" + inputFolder.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Save the results of the source files, the path last as it may contain any character but a tab or a newline.
+     */
+    void saveCache(List<CachedFile> files, String cacheName) throws IOException {
+        BufferedWriter writer = Files.newBufferedWriter(outputFolder.resolve(cacheName));
+        writer.write(cacheHeader() + "\n");
+        for (CachedFile f: files) {
+            if (f.path().indexOf('\t') < 0 && f.path().indexOf('\n') < 0 && f.path().indexOf('\r') < 0) {
+                writer.write(String.format("%d\t%d\t%d\t%d\t%s\t%s\n",
+                        f.size(), f.mtime(), f.lines(), f.tests(), f.error(), f.path()));
+            }
+        }
+        writer.close();
+        out.println("File created: " + cacheName);
+    }
+
     public static void main(String... args) {
         int exitCode = new CommandLine(new p_stats()).execute(args);
         System.exit(exitCode);
@@ -496,10 +1006,19 @@ class LanguagePriorityComparator implements Comparator<String> {
             "HTML", "XML", "XSLT", "CSS", "Less", "Sass", "SCSS", "Markdown", "Text", "Objective-C", "SQL",
             "Java Server Pages");
 
+    // Rank of each known language
+    Map<String, Integer> ranks = new HashMap<>();
+
+    LanguagePriorityComparator() {
+        for (String lang: knownLanguages) {
+            ranks.put(lang, ranks.size());
+        }
+    }
+
     @Override
     public int compare(String s1, String s2) {
-        int k1 = knownLanguages.indexOf(s1);
-        int k2 = knownLanguages.indexOf(s2);
+        int k1 = ranks.getOrDefault(s1, -1);
+        int k2 = ranks.getOrDefault(s2, -1);
         if (k1 >= 0 && k2 >= 0) {
             return k1 - k2;
         } else if (k1 >= 0) {
@@ -512,4 +1031,480 @@ class LanguagePriorityComparator implements Comparator<String> {
     }
 }
 
-record ErrorRecord(String error, String file) {}
\ No newline at end of file
+/**
+ * Counts of each file extension, interned to an id, in a `long[]` column for each parameter.
+ * Each thread adds to its own stripe, and the stripes are summed when the counts are read,
+ * once all the threads are done.
+ */
+class CounterTable {
+
+    // Parameters, in the order of the columns and of the CSV files
+    static final List<String> PARAMS = List.of("files", "lines", "size", "tests");
+    static final int FILES = 0;
+    static final int LINES = 1;
+    static final int SIZE = 2;
+    static final int TESTS = 3;
+
+    // Id of each extension, and extension of each id
+    final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    final List<String> exts = new ArrayList<>();
+
+    final Queue<Counts> stripes = new ConcurrentLinkedQueue<>();
+
+    final ThreadLocal<Counts> stripe = ThreadLocal.withInitial(() -> {
+        Counts c = new Counts();
+        stripes.add(c);
+        return c;
+    });
+
+    /**
+     * @return  the stripe of the current thread
+     */
+    Counts stripe() {
+        return stripe.get();
+    }
+
+    /**
+     * @return  the id of `ext`, interned on its first use
+     */
+    int id(String ext) {
+        Integer id = ids.get(ext);
+        if (id == null) {
+            synchronized (exts) {
+                id = ids.get(ext);
+                if (id == null) {
+                    id = exts.size();
+                    exts.add(ext);
+                    ids.put(ext, id);
+                }
+            }
+        }
+        return id;
+    }
+
+    /**
+     * @return  the sum of the stripes for each parameter and id
+     */
+    long[][] sums() {
+        int n = exts.size();
+        long[][] sums = new long[PARAMS.size()][n];
+        for (Counts c: stripes) {
+            for (int param = 0; param < sums.length; param++) {
+                long[] column = c.columns[param];
+                for (int id = 0; id < Math.min(column.length, n); id++) {
+                    sums[param][id] += column[id];
+                }
+            }
+        }
+        return sums;
+    }
+
+    /**
+     * @return  the sum of `param` for all extensions
+     */
+    long total(int param) {
+        long total = 0;
+        for (long k: sums()[param]) {
+            total += k;
+        }
+        return total;
+    }
+
+    /**
+     * Write a CSV row for each extension with files, sorted by extension:
+     * `prefix`, the language of the extension in `languages`, the extension and the parameters.
+     */
+    void writeRows(BufferedWriter writer, String prefix, Map<String, String> languages) throws IOException {
+        long[][] sums = sums();
+        List<String> extList = new ArrayList<>();
+        for (String ext: exts) {
+            if (sums[FILES][ids.get(ext)] > 0) {
+                extList.add(ext);
+            }
+        }
+        Collections.sort(extList);
+
+        for (String ext: extList) {
+            int id = ids.get(ext);
+            String lang = languages.get(ext);
+
+            // Extract values for this extension type
+            long files = 0L;
+            long lines = 0L;
+            long size = 0L;
+            long tests = 0L;
+            if (lang == null) {
+                lang = "";
+            } else {
+                files = sums[FILES][id];
+                lines = sums[LINES][id];
+                size = sums[SIZE][id];
+                tests = sums[TESTS][id];
+            }
+            writer.write(String.format("%s%s, %s, %d, %d, %d, %d\n", prefix, lang, ext, files, lines, size, tests));
+        }
+    }
+}
+
+/**
+ * Stripe of a `CounterTable`, used by a single thread, with the counts of files that are not by extension.
+ */
+class Counts {
+    int fileCount = 0;
+    int sourceCount = 0;
+    int cachedCount = 0;
+
+    // Column of each parameter, indexed by extension id
+    long[][] columns = new long[CounterTable.PARAMS.size()][16];
+
+    void add(int param, int id, long n) {
+        if (id >= columns[param].length) {
+            int length = Math.max(id + 1, columns[param].length * 2);
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = Arrays.copyOf(columns[i], length);
+            }
+        }
+        columns[param][id] += n;
+    }
+}
+
+/**
+ * Bytes of a file, with the counts of a single pass over them.
+ */
+class FileContent {
+
+    // Files from this size are mapped instead of read
+    static final long MAP_THRESHOLD = 1 << 20;
+
+    final ByteBuffer bytes;
+    int lines;
+    int tests;
+
+    FileContent(ByteBuffer bytes) {
+        this.bytes = bytes;
+    }
+
+    static FileContent read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file)) {
+            long size = channel.size();
+            if (size >= MAP_THRESHOLD) {
+                return new FileContent(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            }
+            ByteBuffer buf = ByteBuffer.allocate((int) size);
+            while (buf.hasRemaining() && channel.read(buf) >= 0) {
+            }
+            return new FileContent(buf.flip());
+        }
+    }
+
+    long size() {
+        return bytes.limit();
+    }
+
+    /**
+     * Count lines as `BufferedReader.readLine` does, ending with `\n`, `\r` or `\r\n`,
+     * check that the bytes are valid UTF-8, and count the test markers of `language`,
+     * all in the same pass.
+     *
+     * @param language  index of the language in `matcher`, or -1 to count no tests
+     */
+    void scan(TestMatcher matcher, int language) throws MalformedInputException {
+        ByteBuffer buf = bytes;
+        int n = buf.limit();
+        int count = 0;
+        int state = 0;
+        int end = 0;
+        tests = 0;
+        int i = 0;
+        while (i < n) {
+            byte b = buf.get(i);
+            int len = 1;
+            if (b >= 0) {
+                if (b == '\n' || b == '\r' && (i + 1 == n || buf.get(i + 1) != '\n')) {
+                    count++;
+                }
+            } else {
+                len = checkUtf8(buf, i, n);
+            }
+            if (language >= 0) {
+                for (int k = i; k < i + len; k++) {
+                    state = matcher.next(state, buf.get(k));
+                    if (matcher.hasMarkers(state)) {
+                        // Markers do not overlap, as the matches of a regular expression
+                        int found = matcher.match(state, language, buf, k + 1, end);
+                        if (found >= 0) {
+                            tests++;
+                            end = k + 1;
+                        }
+                    }
+                }
+            }
+            i += len;
+        }
+        if (n > 0 && buf.get(n - 1) != '\n' && buf.get(n - 1) != '\r') {
+            count++;
+        }
+        lines = count;
+    }
+
+    /**
+     * Check the UTF-8 sequence starting with a non-ASCII byte at `i`,
+     * with the same rules as the decoder of `Files.newBufferedReader`.
+     *
+     * @return  the length of the sequence
+     */
+    static int checkUtf8(ByteBuffer buf, int i, int n) throws MalformedInputException {
+        int c = buf.get(i) & 0xff;
+        int len;
+        int min = 0x80;
+        int max = 0xbf;
+        if (c >= 0xc2 && c <= 0xdf) {
+            len = 2;
+        } else if (c >= 0xe0 && c <= 0xef) {
+            len = 3;
+            if (c == 0xe0) {
+                min = 0xa0; // overlong
+            } else if (c == 0xed) {
+                max = 0x9f; // surrogate
+            }
+        } else if (c >= 0xf0 && c <= 0xf4) {
+            len = 4;
+            if (c == 0xf0) {
+                min = 0x90; // overlong
+            } else if (c == 0xf4) {
+                max = 0x8f; // above U+10FFFF
+            }
+        } else {
+            throw new MalformedInputException(1);
+        }
+        if (i + 1 >= n) {
+            throw new MalformedInputException(1);
+        }
+        int c2 = buf.get(i + 1) & 0xff;
+        if (c2 < min || c2 > max) {
+            throw new MalformedInputException(1);
+        }
+        for (int k = 2; k < len; k++) {
+            if (i + k >= n || (buf.get(i + k) & 0xc0) != 0x80) {
+                throw new MalformedInputException(k);
+            }
+        }
+        return len;
+    }
+}
+
+/**
+ * Finds the test markers of all languages in the UTF-8 bytes of a file,
+ * with one {@link AhoCorasick} automaton and the anchors of each marker.
+ */
+class TestMatcher {
+
+    static final int LITERAL = 0;
+    static final int LINE_START = 1;
+    static final int WORD_START = 2;
+
+    // Language index of each extension
+    final Map<String, Integer> languages = new HashMap<>();
+
+    // Language, length in bytes and anchor of each marker
+    final int[] markerLanguages;
+    final int[] markerLengths;
+    final int[] markerAnchors;
+    // True if the marker starts with a word character, for `WORD_START`
+    final boolean[] markerWords;
+
+    // Automaton on the unsigned bytes of the markers
+    final AhoCorasick automaton;
+
+    // SHA-256 of the config, which keys the cached test counts
+    final String hash;
+
+    /**
+     * @param config  map of language names to their `extensions` and `markers`
+     */
+    TestMatcher(Map<String, Map<String, Object>> config) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(new Yaml().dump(config).getBytes(StandardCharsets.UTF_8));
+            hash = HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        List<Integer> langs = new ArrayList<>();
+        List<byte[]> markers = new ArrayList<>();
+        List<Integer> anchors = new ArrayList<>();
+        List<Boolean> words = new ArrayList<>();
+        int language = 0;
+        for (Map.Entry<String, Map<String, Object>> entry: config.entrySet()) {
+            for (String ext: strings(entry.getValue().get("extensions"))) {
+                languages.put(ext.startsWith(".") ? ext.substring(1) : ext, language);
+            }
+            for (String marker: strings(entry.getValue().get("markers"))) {
+                int anchor = LITERAL;
+                if (marker.startsWith("^")) {
+                    anchor = LINE_START;
+                    marker = marker.substring(1);
+                } else if (marker.startsWith("\\b")) {
+                    anchor = WORD_START;
+                    marker = marker.substring(2);
+                }
+                if (marker.isEmpty()) {
+                    continue;
+                }
+                langs.add(language);
+                markers.add(marker.getBytes(StandardCharsets.UTF_8));
+                anchors.add(anchor);
+                words.add(isWord(marker.codePointAt(0)));
+            }
+            language++;
+        }
+        int m = markers.size();
+        markerLanguages = new int[m];
+        markerLengths = new int[m];
+        markerAnchors = new int[m];
+        markerWords = new boolean[m];
+        List<int[]> patterns = new ArrayList<>();
+        for (int i = 0; i < m; i++) {
+            markerLanguages[i] = langs.get(i);
+            markerLengths[i] = markers.get(i).length;
+            markerAnchors[i] = anchors.get(i);
+            markerWords[i] = words.get(i);
+            int[] pattern = new int[markerLengths[i]];
+            for (int k = 0; k < pattern.length; k++) {
+                pattern[k] = markers.get(i)[k] & 0xff;
+            }
+            patterns.add(pattern);
+        }
+        automaton = new AhoCorasick(patterns);
+    }
+
+    static List<String> strings(Object value) {
+        List<String> list = new ArrayList<>();
+        if (value instanceof List) {
+            for (Object v: (List<?>) value) {
+                list.add(String.valueOf(v));
+            }
+        } else if (value != null) {
+            list.add(String.valueOf(value));
+        }
+        return list;
+    }
+
+    /**
+     * @return  the index of the language of `ext`, or -1 if its tests are not counted
+     */
+    int language(String ext) {
+        return languages.getOrDefault(ext, -1);
+    }
+
+    String hash() {
+        return hash;
+    }
+
+    int next(int state, byte b) {
+        return automaton.next(state, b & 0xff);
+    }
+
+    boolean hasMarkers(int state) {
+        return automaton.found(state) != null;
+    }
+
+    /**
+     * Find a marker of `language` ending at `end` in `buf`, that starts from `from`
+     * and whose anchor holds.
+     *
+     * @return  the index of the marker, or -1 if there is none
+     */
+    int match(int state, int language, ByteBuffer buf, int end, int from) {
+        for (int marker: automaton.found(state)) {
+            int start = end - markerLengths[marker];
+            if (markerLanguages[marker] != language || start < from) {
+                continue;
+            }
+            if (markerAnchors[marker] == LINE_START && !isLineStart(buf, start)
+                    || markerAnchors[marker] == WORD_START && isWordBefore(buf, start) == markerWords[marker]) {
+                continue;
+            }
+            return marker;
+        }
+        return -1;
+    }
+
+    /**
+     * @return  true if `start` follows a line terminator of `Pattern.MULTILINE`
+     */
+    static boolean isLineStart(ByteBuffer buf, int start) {
+        if (start == 0) {
+            return true;
+        }
+        int b = buf.get(start - 1) & 0xff;
+        if (b == '\n' || b == '\r') {
+            return true;
+        }
+        // U+0085, U+2028 and U+2029
+        if (b == 0x85) {
+            return start >= 2 && (buf.get(start - 2) & 0xff) == 0xc2;
+        }
+        return (b == 0xa8 || b == 0xa9) && start >= 3
+                && (buf.get(start - 3) & 0xff) == 0xe2 && (buf.get(start - 2) & 0xff) == 0x80;
+    }
+
+    /**
+     * @return  true if the character before `start` is a word character for `\b`,
+     *          or a non-spacing mark after a letter or digit
+     */
+    static boolean isWordBefore(ByteBuffer buf, int start) {
+        boolean mark = false;
+        int i = start;
+        while (i > 0) {
+            // Back to the first byte of the UTF-8 sequence
+            int k = i - 1;
+            while (k > 0 && k > i - 4 && (buf.get(k) & 0xc0) == 0x80) {
+                k--;
+            }
+            int cp = decode(buf, k, i);
+            if (!mark && isWord(cp)) {
+                return true;
+            }
+            if (Character.getType(cp) != Character.NON_SPACING_MARK) {
+                return mark && Character.isLetterOrDigit(cp);
+            }
+            mark = true;
+            i = k;
+        }
+        return false;
+    }
+
+    static boolean isWord(int cp) {
+        return cp == '_' || Character.isLetterOrDigit(cp);
+    }
+
+    /**
+     * @return  the code point of the valid UTF-8 sequence from `from` to `to`
+     */
+    static int decode(ByteBuffer buf, int from, int to) {
+        int cp = buf.get(from) & 0xff;
+        if (cp < 0x80) {
+            return cp;
+        }
+        cp &= 0xff >> (to - from + 1);
+        for (int k = from + 1; k < to; k++) {
+            cp = (cp << 6) | (buf.get(k) & 0x3f);
+        }
+        return cp;
+    }
+}
+
+record ErrorRecord(String error, String file) {}
+
+record ProjectRecord(String file, String path) {}
+
+record Sample(LocalDate date, RevCommit commit) {}
+
+record BlobKey(ObjectId id, int language) {}
+
+/**
+ * Results of a source file, with the size and modification time they were computed for.
+ * `error` is empty when the file was counted, `tests` is -1 when tests are not counted.
+ */
+record CachedFile(String path, long size, long mtime, int lines, int tests, String error) {}
\ No newline at end of file